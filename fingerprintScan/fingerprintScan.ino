@@ -1,4 +1,5 @@
 #include <Adafruit_Fingerprint.h>
+#include <EEPROM.h>
 
 #if (defined(__AVR__) || defined(ESP8266)) && !defined(__AVR_ATmega2560__)
 #include <SoftwareSerial.h>
@@ -10,8 +11,60 @@ SoftwareSerial mySerial(2, 3);
 Adafruit_Fingerprint finger(&mySerial);
 uint8_t nextID = 1;
 
+// Once the host sends "NEXT <slot>" it owns slot allocation: each enrollment
+// stores into the slot it was given, and with none given (0) enrollment is
+// refused. The host also numbers the sensors it shards the roster across;
+// that number lives in EEPROM so it survives resets and port changes.
+#define SENSOR_NUMBER_ADDRESS 0
+#define SENSOR_NUMBER_UNSET 0xFF
+#define SENSOR_NUMBER_MAX 254
+bool hostManagedSlots = false;
+uint16_t enrollSlot = 0;
+
+// Host commands arrive as "@<id> <VERB> [arg]" and are answered with
+// "@<id> OK [payload]" or "@<id> ERR <reason>" between scan lines.
+char commandLine[32];
+uint8_t commandLength = 0;
+
+// After "@<id> BINARY <baud>" the sketch reports in frames instead of lines:
+//   0xA5  length  type  payload  crc8
+// length counts type + payload; the CRC-8 (poly 0x07) covers length, type and
+// payload. Type codes match SensorFrameCodec.java. If the host does not send
+// a command at the new rate within BINARY_CONFIRM_MS, the sketch goes back to
+// text at 9600 baud.
+#define TEXT_BAUD 9600
+#define BINARY_CONFIRM_MS 2000
+#define FRAME_SYNC 0xA5
+#define FRAME_IMAGE_TAKEN 0x01
+#define FRAME_MATCH 0x02
+#define FRAME_NEW_ID 0x03
+#define FRAME_ENROLL_STARTED 0x04
+#define FRAME_ENROLLING_ID 0x05
+#define FRAME_REMOVE_FINGER 0x06
+#define FRAME_PLACE_AGAIN 0x07
+#define FRAME_ENROLLED 0x08
+#define FRAME_ENROLL_FAILED 0x09
+#define FRAME_SENSOR_FULL 0x0A
+#define FRAME_CLEAR_STARTED 0x0D
+#define FRAME_CLEAR_ACK 0x0E
+#define FRAME_TEXT 0x7E
+#define FRAME_RESPONSE 0x7F
+
+bool binaryMode = false;
+bool awaitingHost = false;
+unsigned long switchedAt = 0;
+
+// LIST loads every template it reports on, which takes the sensor a while,
+// so it answers for LIST_PAGE_SLOTS slots at a time and lets the loop look
+// for a finger before the host's next page.
+#define LIST_PAGE_SLOTS 32
+bool yieldToScan = false;
+
 void setup() {
-  Serial.begin(9600);
+#if defined(ESP8266)
+  EEPROM.begin(16);
+#endif
+  Serial.begin(TEXT_BAUD);
   while (!Serial);
   delay(100);
 
@@ -39,120 +92,347 @@ void setup() {
 }
 
 void loop() {
-  checkFingerprint();
-  delay(500);
+  if (awaitingHost && millis() - switchedAt > BINARY_CONFIRM_MS) {
+    switchSerial(TEXT_BAUD, false);
+  }
+  // No scans until the host confirms the new rate, or it would only see noise.
+  if (!awaitingHost) {
+    checkFingerprint();
+  }
+  unsigned long started = millis();
+  yieldToScan = false;
+  do {
+    pollCommands();
+  } while (millis() - started < 500 && !yieldToScan);
+}
+
+void pollCommands() {
+  while (Serial.available() > 0) {
+    char c = Serial.read();
+    if (c == '\r') continue;
+    if (c == '\n') {
+      commandLine[commandLength] = '\0';
+      handleCommand(commandLine);
+      commandLength = 0;
+    } else if (commandLength < sizeof(commandLine) - 1) {
+      commandLine[commandLength++] = c;
+    }
+  }
+}
+
+void handleCommand(char *line) {
+  if (strcmp(line, "CLEARFP") == 0) {
+    clearAllFingerprints();
+    return;
+  }
+  if (line[0] != '@') return;
+
+  char *verb = strchr(line, ' ');
+  if (verb == NULL) return;
+  *verb++ = '\0';
+  const char *id = line + 1;
+  char *arg = strchr(verb, ' ');
+  if (arg != NULL) *arg++ = '\0';
+  awaitingHost = false;
+
+  char payload[36];
+  if (strcmp(verb, "COUNT") == 0) {
+    if (finger.getTemplateCount() == FINGERPRINT_OK) {
+      itoa(finger.templateCount, payload, 10);
+      reply(id, "OK", payload);
+    } else {
+      reply(id, "ERR", "SENSOR");
+    }
+  } else if (strcmp(verb, "DELETE") == 0) {
+    long slot = arg == NULL ? 0 : atol(arg);
+    if (slot < 1 || slot > finger.capacity) {
+      reply(id, "ERR", "RANGE");
+    } else if (finger.deleteModel(slot) == FINGERPRINT_OK) {
+      reply(id, "OK", NULL);
+    } else {
+      reply(id, "ERR", "SENSOR");
+    }
+  } else if (strcmp(verb, "LIST") == 0) {
+    // "LIST [first]": hex bytes for slots first .. first + LIST_PAGE_SLOTS - 1,
+    // the first eight in the first byte, low bit first. The host reads the
+    // page size from the length of the answer.
+    uint16_t first = arg == NULL ? 0 : atol(arg);
+    const char *hex = "0123456789ABCDEF";
+    for (uint8_t b = 0; b < LIST_PAGE_SLOTS / 8; b++) {
+      uint8_t bits = 0;
+      for (uint8_t i = 0; i < 8; i++) {
+        uint16_t slot = first + b * 8 + i;
+        if (slot >= 1 && slot <= finger.capacity && finger.loadModel(slot) == FINGERPRINT_OK) {
+          bits |= 1 << i;
+        }
+      }
+      payload[b * 2] = hex[bits >> 4];
+      payload[b * 2 + 1] = hex[bits & 0x0F];
+    }
+    payload[LIST_PAGE_SLOTS / 4] = '\0';
+    reply(id, "OK", payload);
+    yieldToScan = true;
+  } else if (strcmp(verb, "CLEAR") == 0) {
+    if (clearAllFingerprints()) {
+      reply(id, "OK", NULL);
+    } else {
+      reply(id, "ERR", "SENSOR");
+    }
+  } else if (strcmp(verb, "SENSOR") == 0) {
+    // "SENSOR [number]": reads or sets this sensor's number; answers
+    // "<number|NONE> <capacity>".
+    if (arg != NULL) {
+      // 0xFF reads back as unset, and wrapping would reuse sensor 0's IDs.
+      long number = atol(arg);
+      if (number < 0 || number > SENSOR_NUMBER_MAX) {
+        reply(id, "ERR", "RANGE");
+        return;
+      }
+      EEPROM.write(SENSOR_NUMBER_ADDRESS, (uint8_t) number);
+#if defined(ESP8266)
+      EEPROM.commit();
+#endif
+    }
+    uint8_t number = EEPROM.read(SENSOR_NUMBER_ADDRESS);
+    if (number == SENSOR_NUMBER_UNSET) {
+      strcpy(payload, "NONE ");
+    } else {
+      itoa(number, payload, 10);
+      strcat(payload, " ");
+    }
+    itoa(finger.capacity, payload + strlen(payload), 10);
+    reply(id, "OK", payload);
+  } else if (strcmp(verb, "NEXT") == 0) {
+    long slot = arg == NULL ? -1 : atol(arg);
+    if (slot < 0 || slot > finger.capacity) {
+      reply(id, "ERR", "RANGE");
+    } else {
+      hostManagedSlots = true;
+      enrollSlot = slot;
+      reply(id, "OK", NULL);
+    }
+  } else if (strcmp(verb, "PING") == 0) {
+    reply(id, "OK", binaryMode ? "BINARY" : "TEXT");
+  } else if (strcmp(verb, "BINARY") == 0) {
+    long baud = arg == NULL ? 0 : atol(arg);
+    if (baud < 57600 || baud > 1000000) {
+      reply(id, "ERR", "BAUD");
+    } else {
+      // Answered at the old rate; the host switches when it reads the OK.
+      reply(id, "OK", arg);
+      switchSerial(baud, true);
+      awaitingHost = true;
+      switchedAt = millis();
+    }
+  } else {
+    reply(id, "ERR", "UNKNOWN");
+  }
+}
+
+void switchSerial(long baud, bool binary) {
+  Serial.flush();
+  Serial.end();
+  Serial.begin(baud);
+  binaryMode = binary;
+  awaitingHost = false;
+  commandLength = 0;
+}
+
+void reply(const char *id, const char *status, const char *payload) {
+  char line[52];
+  line[0] = '@';
+  strncpy(line + 1, id, 10);
+  line[11] = '\0';
+  strcat(line, " ");
+  strcat(line, status);
+  if (payload != NULL) {
+    strcat(line, " ");
+    strncat(line, payload, sizeof(line) - strlen(line) - 1);
+  }
+  if (binaryMode) {
+    sendFrame(FRAME_RESPONSE, (const uint8_t *) line, strlen(line));
+  } else {
+    Serial.println(line);
+  }
+}
+
+void report(uint8_t type, const char *text) {
+  if (binaryMode) {
+    sendFrame(type, NULL, 0);
+  } else {
+    Serial.println(text);
+  }
+}
+
+void reportValue(uint8_t type, const char *text, int16_t value) {
+  if (binaryMode) {
+    uint8_t payload[2] = { (uint8_t) (value & 0xFF), (uint8_t) ((value >> 8) & 0xFF) };
+    sendFrame(type, payload, 2);
+  } else {
+    Serial.print(text);
+    Serial.println(value);
+  }
+}
+
+void reportText(const char *text) {
+  if (binaryMode) {
+    sendFrame(FRAME_TEXT, (const uint8_t *) text, strlen(text));
+  } else {
+    Serial.println(text);
+  }
+}
+
+void reportClearAck(bool ok) {
+  if (binaryMode) {
+    uint8_t flag = ok ? 1 : 0;
+    sendFrame(FRAME_CLEAR_ACK, &flag, 1);
+  } else {
+    Serial.println(ok ? "ClearFP:OK" : "ClearFP:FAIL");
+  }
+}
+
+void sendFrame(uint8_t type, const uint8_t *payload, uint8_t length) {
+  uint8_t header[3] = { FRAME_SYNC, (uint8_t) (length + 1), type };
+  uint8_t crc = crc8(0, header + 1, 2);
+  crc = crc8(crc, payload, length);
+  Serial.write(header, 3);
+  if (length > 0) Serial.write(payload, length);
+  Serial.write(crc);
+}
+
+uint8_t crc8(uint8_t crc, const uint8_t *data, uint8_t length) {
+  while (length--) {
+    crc ^= *data++;
+    for (uint8_t bit = 0; bit < 8; bit++) {
+      crc = (crc & 0x80) ? (crc << 1) ^ 0x07 : crc << 1;
+    }
+  }
+  return crc;
 }
 
 void checkFingerprint() {
   uint8_t p = finger.getImage();
   if (p == FINGERPRINT_NOFINGER) return;
   if (p != FINGERPRINT_OK) {
-    Serial.println("Error capturing image");
+    reportText("Error capturing image");
     return;
   }
 
-  Serial.println("Image taken");
+  report(FRAME_IMAGE_TAKEN, "Image taken");
 
   p = finger.image2Tz();
   if (p != FINGERPRINT_OK) {
-    Serial.println("Error converting image");
+    reportText("Error converting image");
     return;
   }
 
   p = finger.fingerFastSearch();
   if (p == FINGERPRINT_OK) {
-    Serial.print("Found ID #"); 
-    Serial.println(finger.fingerID);
-    Serial.print("NewID:"); 
-    Serial.println(finger.fingerID);
+    reportValue(FRAME_MATCH, "Found ID #", finger.fingerID);
+    reportValue(FRAME_NEW_ID, "NewID:", finger.fingerID);
   } else if (p == FINGERPRINT_NOTFOUND) {
-    Serial.println("Fingerprint not found - enrolling new fingerprint...");
-    if (enrollNewFingerprint()) {
-      Serial.print("NewID:");
-      Serial.println(nextID - 1); 
+    report(FRAME_ENROLL_STARTED, "Fingerprint not found - enrolling new fingerprint...");
+    int16_t enrolled = enrollNewFingerprint();
+    if (enrolled > 0) {
+      reportValue(FRAME_NEW_ID, "NewID:", enrolled);
     } else {
-      Serial.println("Enrollment failed");
-      Serial.println("NewID:-1");
+      report(FRAME_ENROLL_FAILED, "Enrollment failed");
+      reportValue(FRAME_NEW_ID, "NewID:", -1);
     }
   } else {
-    Serial.println("Communication error");
+    reportText("Communication error");
   }
 }
 
-bool enrollNewFingerprint() {
-  if (nextID > 127) {
-    Serial.println("Sensor full! Cannot enroll more fingerprints.");
-    return false;
+// Returns the slot the new template was stored in, or -1.
+int16_t enrollNewFingerprint() {
+  uint16_t id;
+  if (hostManagedSlots) {
+    if (enrollSlot == 0) {
+      report(FRAME_SENSOR_FULL, "Sensor full! Cannot enroll more fingerprints.");
+      return -1;
+    }
+    id = enrollSlot;
+  } else {
+    if (nextID > 127) {
+      report(FRAME_SENSOR_FULL, "Sensor full! Cannot enroll more fingerprints.");
+      return -1;
+    }
+    id = nextID;
   }
 
-  uint8_t id = nextID;
-
-  Serial.print("Enrolling ID #");
-  Serial.println(id);
+  reportValue(FRAME_ENROLLING_ID, "Enrolling ID #", id);
 
   int p = -1;
   while (p != FINGERPRINT_OK) {
     p = finger.getImage();
     if (p == FINGERPRINT_NOFINGER) continue;
     if (p != FINGERPRINT_OK) {
-      Serial.println("Error capturing first image, try again");
+      reportText("Error capturing first image, try again");
       delay(1000);
     }
   }
 
   p = finger.image2Tz(1);
   if (p != FINGERPRINT_OK) {
-    Serial.println("Error converting first image");
-    return false;
+    reportText("Error converting first image");
+    return -1;
   }
 
-  Serial.println("Remove finger...");
+  report(FRAME_REMOVE_FINGER, "Remove finger...");
   delay(2000);
   while (finger.getImage() != FINGERPRINT_NOFINGER);
 
-  Serial.println("Place same finger again");
+  report(FRAME_PLACE_AGAIN, "Place same finger again");
   p = -1;
   while (p != FINGERPRINT_OK) {
     p = finger.getImage();
     if (p == FINGERPRINT_NOFINGER) continue;
     if (p != FINGERPRINT_OK) {
-      Serial.println("Error capturing second image, try again");
+      reportText("Error capturing second image, try again");
       delay(1000);
     }
   }
 
   p = finger.image2Tz(2);
   if (p != FINGERPRINT_OK) {
-    Serial.println("Error converting second image");
-    return false;
+    reportText("Error converting second image");
+    return -1;
   }
 
   p = finger.createModel();
   if (p != FINGERPRINT_OK) {
-    Serial.println("Error creating fingerprint model");
-    return false;
+    reportText("Error creating fingerprint model");
+    return -1;
   }
 
   p = finger.storeModel(id);
   if (p != FINGERPRINT_OK) {
-    Serial.println("Error storing fingerprint model");
-    return false;
+    reportText("Error storing fingerprint model");
+    return -1;
   }
 
-  Serial.println("Enrollment successful!");
-  nextID++; 
-  return true;
+  report(FRAME_ENROLLED, "Enrollment successful!");
+  if (hostManagedSlots) {
+    // Used up; the host sends the next free slot when it sees the new ID.
+    enrollSlot = 0;
+  } else {
+    nextID++; 
+  }
+  return id;
 }
 
-void clearAllFingerprints() {
-  Serial.println("Clearing sensor fingerprint database...");
+bool clearAllFingerprints() {
+  report(FRAME_CLEAR_STARTED, "Clearing sensor fingerprint database...");
   uint8_t p = finger.emptyDatabase();
   if (p == FINGERPRINT_OK) {
-    Serial.println("All fingerprints deleted!");
-    Serial.println("ClearFP:OK");
+    reportText("All fingerprints deleted!");
+    reportClearAck(true);
     nextID = 1; 
+    return true;
   } else {
-    Serial.println("Failed to clear fingerprints.");
-    Serial.println("ClearFP:FAIL");
+    reportText("Failed to clear fingerprints.");
+    reportClearAck(false);
+    return false;
   }
 }
@@ -0,0 +1,355 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Console logging and serial capture off the reader threads. A producer
+ * copies its entry into a preallocated ring - a serial line's bytes into the
+ * entry's fixed byte slot, a message (an immutable String) by reference - and
+ * returns; one daemon thread drains the ring to System.out and the capture
+ * files. When the ring is full the entry is dropped and counted instead of
+ * stalling a reader, and the count is reported once the writer catches up.
+ *
+ * The capture holds everything to and from every scanner with the time it
+ * was seen, in rolling files under capture/:
+ *
+ *   2026-10-18 08:01:02.123 COM7 < Found ID #5
+ *   2026-10-18 08:01:02.125 COM7 > @12 NEXT 31
+ *   2026-10-18 08:01:02.130 COM7 # a50303 1e00 06
+ *
+ * "<" is a line from the sketch, ">" a command to it and "#" a binary frame
+ * as received, in hex (header, payload, CRC). A slot holds the largest frame;
+ * a text line longer than that is cut, marked on the console and captured
+ * as "~" so a replay skips it. ReplayTransport plays such a file back. Turn
+ * the capture off with -Dattendance.capture=false.
+ */
+public final class AsyncLog {
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    // Room for the largest frame, SensorFrameCodec.MAX_FRAME_BYTES.
+    private static final int SLOT_BYTES = 512;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+    private static final long SHUTDOWN_DRAIN_MS = 1000;
+
+    private static final String CAPTURE_DIRECTORY = "capture";
+    private static final String CAPTURE_PREFIX = "serial-";
+    private static final long CAPTURE_FILE_BYTES = 8L << 20;
+    private static final int CAPTURE_FILES = 10;
+
+    public static final DateTimeFormatter CAPTURE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final DateTimeFormatter CAPTURE_FILE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    private static final byte MESSAGE = 0;
+    private static final byte RECEIVED = 1;
+    private static final byte SENT = 2;
+    private static final byte EVENT = 3;
+    private static final byte FRAME = 4;
+    // Or'ed into the kind of serial entries that go to the capture.
+    private static final byte CAPTURED = 0x10;
+
+    private static final AsyncLog INSTANCE = new AsyncLog(
+        Boolean.parseBoolean(System.getProperty("attendance.capture", "true")));
+
+    private final byte[] kinds = new byte[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private final String[] sources = new String[CAPACITY];
+    private final Object[] messages = new Object[CAPACITY];
+    private final Throwable[] errors = new Throwable[CAPACITY];
+    private final int[] values = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final byte[] bytes = new byte[CAPACITY * SLOT_BYTES];
+    private final Thread writer;
+    private long head;
+    private long dropped;
+    private volatile long published;
+    private volatile long consumed;
+    private volatile boolean parked;
+
+    private boolean captureEnabled;
+    private OutputStream capture;
+    private long captureBytes;
+
+    private AsyncLog(boolean captureEnabled) {
+        this.captureEnabled = captureEnabled;
+        writer = new Thread(this::run, "async-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "async-log-shutdown"));
+    }
+
+    public static void info(String message) {
+        INSTANCE.publish(MESSAGE, null, message, null, null, 0, 0, 0);
+    }
+
+    /*
+     * The message, if any, then the stack trace.
+     */
+    public static void error(String message, Throwable error) {
+        INSTANCE.publish(MESSAGE, null, message, error, null, 0, 0, 0);
+    }
+
+    /*
+     * A line from a scanner: echoed to the console and, if captured, written
+     * to the capture.
+     */
+    public static void received(String port, byte[] data, int offset, int length, boolean captured) {
+        INSTANCE.publish(captured ? (byte) (RECEIVED | CAPTURED) : RECEIVED, port, null, null, data, offset, length, 0);
+    }
+
+    /*
+     * A command to a scanner; capture only.
+     */
+    public static void sent(String port, String command, boolean captured) {
+        if (captured) {
+            INSTANCE.publish((byte) (SENT | CAPTURED), port, command, null, null, 0, 0, 0);
+        }
+    }
+
+    /*
+     * An event decoded from a binary frame; console only, the frame itself
+     * goes to the capture. description is the SensorEvent, or a String for a
+     * frame type the host does not know.
+     */
+    public static void event(String port, Object description, int value) {
+        INSTANCE.publish(EVENT, port, description, null, null, 0, 0, value);
+    }
+
+    /*
+     * A binary frame from a scanner as received; capture only.
+     */
+    public static void frame(String port, byte[] data, int offset, int length, boolean captured) {
+        if (captured) {
+            INSTANCE.publish((byte) (FRAME | CAPTURED), port, null, null, data, offset, length, 0);
+        }
+    }
+
+    private void publish(byte kind, String source, Object message, Throwable error,
+            byte[] data, int offset, int length, int value) {
+        synchronized (this) {
+            if (head - consumed == CAPACITY) {
+                dropped++;
+                return;
+            }
+            int index = (int) (head & MASK);
+            kinds[index] = kind;
+            times[index] = System.currentTimeMillis();
+            sources[index] = source;
+            messages[index] = message;
+            errors[index] = error;
+            values[index] = value;
+            if (data != null) {
+                // The full length, so the writer can tell a line was cut.
+                System.arraycopy(data, offset, bytes, index * SLOT_BYTES, Math.min(length, SLOT_BYTES));
+                lengths[index] = length;
+            }
+            published = ++head;
+        }
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            if (!writeAvailable()) {
+                reportDropped();
+                flushCapture();
+                parked = true;
+                if (published == consumed) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                parked = false;
+            }
+        }
+    }
+
+    /*
+     * Writes what has been published so far; false if there was nothing.
+     */
+    private boolean writeAvailable() {
+        long available = published;
+        long next = consumed;
+        if (next == available) {
+            return false;
+        }
+        while (next < available) {
+            int index = (int) (next & MASK);
+            try {
+                write(index);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            messages[index] = null;
+            errors[index] = null;
+            sources[index] = null;
+            consumed = ++next;
+        }
+        return true;
+    }
+
+    /*
+     * Runs at exit, so the last lines before a crash or a close reach the
+     * console and the capture.
+     */
+    private void drain() {
+        long deadline = System.nanoTime() + SHUTDOWN_DRAIN_MS * 1_000_000L;
+        while (consumed != published && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            Thread.onSpinWait();
+        }
+        synchronized (writer) {
+            if (capture != null) {
+                try {
+                    capture.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void write(int index) {
+        int kind = kinds[index] & ~CAPTURED;
+        boolean captured = (kinds[index] & CAPTURED) != 0;
+        String source = sources[index];
+        switch (kind) {
+            case MESSAGE:
+                if (messages[index] != null) {
+                    System.out.println(messages[index]);
+                }
+                if (errors[index] != null) {
+                    errors[index].printStackTrace();
+                }
+                break;
+            case RECEIVED:
+                int length = lengths[index];
+                String line = new String(bytes, index * SLOT_BYTES, Math.min(length, SLOT_BYTES),
+                    StandardCharsets.US_ASCII);
+                if (length > SLOT_BYTES) {
+                    System.out.println("Arduino[" + source + "]: " + line + "... (" + length + " bytes, cut)");
+                    if (captured) {
+                        capture(times[index], source, "~ ", line);
+                    }
+                } else {
+                    System.out.println("Arduino[" + source + "]: " + line);
+                    if (captured) {
+                        capture(times[index], source, "< ", line);
+                    }
+                }
+                break;
+            case SENT:
+                capture(times[index], source, "> ", (String) messages[index]);
+                break;
+            case EVENT:
+                String event = values[index] == SensorProtocolDecoder.NO_VALUE
+                    ? messages[index].toString() : messages[index] + " " + values[index];
+                System.out.println("Arduino[" + source + "]: " + event);
+                break;
+            case FRAME:
+                capture(times[index], source, "# ", hex(index * SLOT_BYTES, Math.min(lengths[index], SLOT_BYTES)));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /*
+     * Header, payload and CRC as separate groups, for reading by eye.
+     */
+    private String hex(int offset, int length) {
+        StringBuilder text = new StringBuilder(length * 2 + 2);
+        for (int i = 0; i < length; i++) {
+            if (i == SensorFrameCodec.HEADER_LENGTH || (i == length - 1 && i > SensorFrameCodec.HEADER_LENGTH)) {
+                text.append(' ');
+            }
+            text.append(Character.forDigit((bytes[offset + i] >> 4) & 0xF, 16))
+                .append(Character.forDigit(bytes[offset + i] & 0xF, 16));
+        }
+        return text.toString();
+    }
+
+    private void reportDropped() {
+        long lost;
+        synchronized (this) {
+            lost = dropped;
+            dropped = 0;
+        }
+        if (lost > 0) {
+            System.out.println("Log: dropped " + lost + " entries while the writer was behind");
+            if (captureEnabled) {
+                capture(System.currentTimeMillis(), "#", "dropped ", Long.toString(lost));
+            }
+        }
+    }
+
+    private void capture(long epochMillis, String source, String direction, String text) {
+        if (!captureEnabled) {
+            return;
+        }
+        synchronized (writer) {
+            try {
+                if (capture == null || captureBytes >= CAPTURE_FILE_BYTES) {
+                    rollCapture();
+                }
+                byte[] entry = (LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault())
+                    .format(CAPTURE_TIME_FORMAT) + " " + source + " " + direction + text + "\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+                capture.write(entry);
+                captureBytes += entry.length;
+            } catch (IOException e) {
+                System.out.println("Serial capture stopped: " + e.getMessage());
+                captureEnabled = false;
+            }
+        }
+    }
+
+    private void flushCapture() {
+        synchronized (writer) {
+            if (capture != null) {
+                try {
+                    capture.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+     * Starts a new capture file and deletes the oldest beyond CAPTURE_FILES.
+     */
+    private void rollCapture() throws IOException {
+        if (capture != null) {
+            capture.close();
+            capture = null;
+        }
+        Path directory = Paths.get(CAPTURE_DIRECTORY);
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, CAPTURE_PREFIX + "*.log")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        for (int i = 0; i <= files.size() - CAPTURE_FILES; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+        Path file = directory.resolve(CAPTURE_PREFIX + LocalDateTime.now().format(CAPTURE_FILE_FORMAT) + ".log");
+        capture = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        captureBytes = 0;
+    }
+}
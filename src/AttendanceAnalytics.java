@@ -0,0 +1,411 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/*
+ * Attendance aggregates over the scan history: per day, who came and when
+ * they first scanned; per student, days present, late arrivals, average
+ * first-scan time and absence streaks. A "school day" is a day on which
+ * anybody scanned.
+ *
+ * rebuild() reads the history segments in parallel, one day per fork/join
+ * task, then folds the days into per-student totals in date order. After
+ * that every recorded scan updates the aggregates in place (record()), so
+ * reports are read straight from the cache however much history there is.
+ * Only the first scan of a student on a day counts; later scans that day
+ * change nothing, which also makes re-applying a scan harmless.
+ */
+public class AttendanceAnalytics {
+    public static final int BUCKET_MINUTES = 15;
+    public static final int BUCKETS = 24 * 60 / BUCKET_MINUTES;
+
+    private static final int NONE = -1;
+
+    /*
+     * One school day: each student's first scan as seconds into the day.
+     */
+    public static final class DayStats {
+        public final LocalDate day;
+        final IntIntHashMap firstScan = new IntIntHashMap(256, NONE);
+        final int[] histogram = new int[BUCKETS];
+        int present;
+        int late;
+
+        DayStats(LocalDate day) {
+            this.day = day;
+        }
+
+        public int getPresent() {
+            return present;
+        }
+
+        public int getLate() {
+            return late;
+        }
+
+        public int[] getHistogram() {
+            return histogram.clone();
+        }
+    }
+
+    /*
+     * A copy of one student's totals, with streaks resolved against the
+     * school days known when it was taken.
+     */
+    public static final class StudentStats {
+        public final int fingerprintID;
+        public final int daysPresent;
+        public final int schoolDays;
+        public final int lateDays;
+        // Seconds into the day, or -1 if never present.
+        public final int averageFirstScan;
+        public final int currentAbsenceStreak;
+        public final int longestAbsenceStreak;
+
+        StudentStats(int fingerprintID, int daysPresent, int schoolDays, int lateDays, int averageFirstScan,
+                int currentAbsenceStreak, int longestAbsenceStreak) {
+            this.fingerprintID = fingerprintID;
+            this.daysPresent = daysPresent;
+            this.schoolDays = schoolDays;
+            this.lateDays = lateDays;
+            this.averageFirstScan = averageFirstScan;
+            this.currentAbsenceStreak = currentAbsenceStreak;
+            this.longestAbsenceStreak = longestAbsenceStreak;
+        }
+
+        public double attendanceRate() {
+            return schoolDays == 0 ? 0 : daysPresent * 100.0 / schoolDays;
+        }
+    }
+
+    private static final class Totals {
+        int daysPresent;
+        int lateDays;
+        long firstScanSum;
+        // Index into days of the last day present, or -1.
+        int lastPresent = NONE;
+        int longestGap;
+    }
+
+    private final AttendanceHistory history;
+    private final int lateAfterSeconds;
+    private final List<DayStats> days = new ArrayList<>();
+    private final Map<LocalDate, DayStats> byDay = new HashMap<>();
+    private final Map<Integer, Totals> totals = new HashMap<>();
+    private final int[] histogram = new int[BUCKETS];
+    private volatile long version;
+    // Totals and histogram wait for a rebuild; see record().
+    private boolean stale;
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private final ExecutorService rebuilds = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "analytics-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AttendanceAnalytics(AttendanceHistory history, LocalTime lateAfter) {
+        this.history = history;
+        this.lateAfterSeconds = lateAfter.toSecondOfDay();
+    }
+
+    /*
+     * Recomputes everything from the history files. The days are read
+     * outside the lock; scans recorded meanwhile are folded in by record()
+     * before or after, to the same effect.
+     */
+    public void rebuild() throws IOException {
+        List<LocalDate> dayList = history.days();
+        List<DayStats> loaded;
+        try {
+            loaded = dayList.parallelStream().map(this::readDay).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        synchronized (this) {
+            Map<LocalDate, DayStats> mergedByDay = new HashMap<>();
+            for (DayStats day : loaded) {
+                mergedByDay.put(day.day, day);
+            }
+            for (DayStats live : days) {
+                DayStats day = mergedByDay.putIfAbsent(live.day, live);
+                if (day != null) {
+                    live.firstScan.forEach((fingerprintID, seconds) -> {
+                        int previous = day.firstScan.get(fingerprintID);
+                        if (previous == NONE || seconds < previous) {
+                            if (previous != NONE) {
+                                removeFirstScan(day, previous);
+                            }
+                            firstScan(day, fingerprintID, seconds);
+                        }
+                    });
+                }
+            }
+            List<DayStats> merged = new ArrayList<>(mergedByDay.values());
+            merged.removeIf(day -> day.present == 0);
+            merged.sort((a, b) -> a.day.compareTo(b.day));
+            days.clear();
+            byDay.clear();
+            totals.clear();
+            Arrays.fill(histogram, 0);
+            for (DayStats day : merged) {
+                days.add(day);
+                byDay.put(day.day, day);
+            }
+            for (int index = 0; index < days.size(); index++) {
+                DayStats day = days.get(index);
+                int dayIndex = index;
+                day.firstScan.forEach((fingerprintID, seconds) -> addPresence(fingerprintID, dayIndex, seconds));
+                for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                    histogram[bucket] += day.histogram[bucket];
+                }
+            }
+            stale = false;
+            version++;
+        }
+    }
+
+    /*
+     * Queues a rebuild on the analytics-rebuild thread, unless one is
+     * already waiting there; that one will see whatever this would have.
+     */
+    public void rebuildInBackground() {
+        if (!rebuildPending.compareAndSet(false, true)) {
+            return;
+        }
+        rebuilds.execute(() -> {
+            rebuildPending.set(false);
+            try {
+                long started = System.nanoTime();
+                rebuild();
+                AsyncLog.info("Analytics rebuilt over " + schoolDays() + " school days in "
+                    + (System.nanoTime() - started) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                AsyncLog.error("Analytics rebuild failed", e);
+            }
+        });
+    }
+
+    /*
+     * Changes whenever the aggregates do, so a view can skip redrawing.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getLateAfterSeconds() {
+        return lateAfterSeconds;
+    }
+
+    /*
+     * Folds one new scan in. A new school day before the newest known one,
+     * or a first scan for a day before the student's last day present,
+     * would shift streaks; such a scan marks the totals stale and queues a
+     * rebuild. Until it finishes scans only update their day, which the
+     * rebuild merges.
+     */
+    public void record(int fingerprintID, long epochMillis) {
+        LocalDate date = Timestamps.dayOf(epochMillis);
+        int seconds = (int) ((epochMillis - Timestamps.startOfDay(date)) / 1000);
+        synchronized (this) {
+            DayStats day = byDay.get(date);
+            boolean newDay = day == null;
+            if (newDay) {
+                day = new DayStats(date);
+                days.add(insertionPoint(date), day);
+                byDay.put(date, day);
+            }
+            int previous = day.firstScan.get(fingerprintID);
+            if (previous != NONE && previous <= seconds) {
+                return;
+            }
+            version++;
+            if (previous != NONE) {
+                removeFirstScan(day, previous);
+            }
+            firstScan(day, fingerprintID, seconds);
+            if (stale) {
+                return;
+            }
+            int dayIndex = days.size() - 1;
+            while (days.get(dayIndex) != day) {
+                dayIndex--;
+            }
+            Totals student = totals.get(fingerprintID);
+            boolean outOfOrder = previous == NONE
+                ? (newDay && dayIndex < days.size() - 1) || (student != null && student.lastPresent > dayIndex)
+                : student == null;
+            if (outOfOrder) {
+                stale = true;
+                rebuildInBackground();
+                return;
+            }
+            if (previous != NONE) {
+                histogram[bucketOf(previous)]--;
+            }
+            histogram[bucketOf(day.firstScan.get(fingerprintID))]++;
+            if (previous == NONE) {
+                addPresence(fingerprintID, dayIndex, seconds);
+            } else {
+                student.firstScanSum += seconds - previous;
+                if (previous > lateAfterSeconds && seconds <= lateAfterSeconds) {
+                    student.lateDays--;
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        version++;
+        stale = false;
+        days.clear();
+        byDay.clear();
+        totals.clear();
+        Arrays.fill(histogram, 0);
+    }
+
+    public synchronized int schoolDays() {
+        return days.size();
+    }
+
+    public synchronized List<LocalDate> days() {
+        List<LocalDate> list = new ArrayList<>(days.size());
+        for (DayStats day : days) {
+            list.add(day.day);
+        }
+        return list;
+    }
+
+    /*
+     * Present and late counts of every school day, oldest first.
+     */
+    public synchronized List<int[]> dailyCounts() {
+        List<int[]> counts = new ArrayList<>(days.size());
+        for (DayStats day : days) {
+            counts.add(new int[] {day.present, day.late});
+        }
+        return counts;
+    }
+
+    /*
+     * First-scan times over all school days, in BUCKET_MINUTES buckets from
+     * midnight.
+     */
+    public synchronized int[] firstScanHistogram() {
+        return histogram.clone();
+    }
+
+    public synchronized int[] firstScanHistogram(LocalDate date) {
+        DayStats day = byDay.get(date);
+        return day == null ? new int[BUCKETS] : day.histogram.clone();
+    }
+
+    /*
+     * Totals for the given students, in the same order; students who never
+     * scanned have zero days present and have been absent every school day.
+     */
+    public synchronized List<StudentStats> students(Collection<Integer> fingerprintIDs) {
+        List<StudentStats> stats = new ArrayList<>(fingerprintIDs.size());
+        int schoolDays = days.size();
+        for (int fingerprintID : fingerprintIDs) {
+            Totals student = totals.get(fingerprintID);
+            if (student == null) {
+                stats.add(new StudentStats(fingerprintID, 0, schoolDays, 0, NONE, schoolDays, schoolDays));
+                continue;
+            }
+            int current = schoolDays - 1 - student.lastPresent;
+            stats.add(new StudentStats(fingerprintID, student.daysPresent, schoolDays, student.lateDays,
+                (int) (student.firstScanSum / student.daysPresent), current, Math.max(student.longestGap, current)));
+        }
+        return stats;
+    }
+
+    /*
+     * Where a new day goes to keep days in date order.
+     */
+    private int insertionPoint(LocalDate date) {
+        int low = 0;
+        int high = days.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (days.get(middle).day.isBefore(date)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private DayStats readDay(LocalDate date) {
+        DayStats day = new DayStats(date);
+        long dayStart = Timestamps.startOfDay(date) / 1000;
+        try {
+            history.readDay(date, (fingerprintID, epochSeconds, scannerID) -> {
+                int seconds = (int) (epochSeconds - dayStart);
+                int previous = day.firstScan.get(fingerprintID);
+                if (previous == NONE) {
+                    firstScan(day, fingerprintID, seconds);
+                } else if (seconds < previous) {
+                    removeFirstScan(day, previous);
+                    firstScan(day, fingerprintID, seconds);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return day;
+    }
+
+    private void firstScan(DayStats day, int fingerprintID, int seconds) {
+        seconds = Math.max(0, Math.min(seconds, 24 * 3600 - 1));
+        if (day.firstScan.get(fingerprintID) == NONE) {
+            day.present++;
+        }
+        day.firstScan.put(fingerprintID, seconds);
+        day.histogram[bucketOf(seconds)]++;
+        if (seconds > lateAfterSeconds) {
+            day.late++;
+        }
+    }
+
+    /*
+     * Takes back a day's first scan that an earlier one replaces; the
+     * caller records the replacement.
+     */
+    private void removeFirstScan(DayStats day, int seconds) {
+        day.histogram[bucketOf(seconds)]--;
+        if (seconds > lateAfterSeconds) {
+            day.late--;
+        }
+    }
+
+    private static int bucketOf(int seconds) {
+        return seconds / 60 / BUCKET_MINUTES;
+    }
+
+    /*
+     * Counts a first presence on days[dayIndex]; days are folded in order, so
+     * dayIndex is never before the student's last day present.
+     */
+    private void addPresence(int fingerprintID, int dayIndex, int seconds) {
+        Totals student = totals.computeIfAbsent(fingerprintID, id -> new Totals());
+        student.daysPresent++;
+        student.firstScanSum += seconds;
+        if (seconds > lateAfterSeconds) {
+            student.lateDays++;
+        }
+        student.longestGap = Math.max(student.longestGap, dayIndex - student.lastPresent - 1);
+        student.lastPresent = dayIndex;
+    }
+}
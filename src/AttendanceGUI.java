@@ -1,43 +1,70 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.JTableHeader;
+import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import com.fazecast.jSerialComm.SerialPort;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongPredicate;
 
 public class AttendanceGUI extends JFrame {
     private JTable studentTable;
-    private DefaultTableModel tableModel;
-    private SerialPort arduinoPort;
-    private static final String DATA_FILE = "students.dat";
+    private StudentTableModel tableModel;
+    private TableRowSorter<StudentTableModel> tableSorter;
+    private StudentRowFilter rowFilter;
+    private JLabel matchCountLabel;
+    private static final String EXPORT_STATE_FILE = "export.properties";
+    private static final String LIVE_VIEW = "Live Roster";
+    private JComboBox<Object> daySelector;
+    private LocalDate viewedDay;
+    private final AttendanceService service;
+    private AttendanceHttpServer httpServer;
     private JLabel statusLabel;
     private JLabel connectionLabel;
-    private volatile boolean dialogOpen = false;
-    private volatile boolean processingFingerprint = false;
-    private JDialog progressDialog;
-    private JProgressBar progressBar;
-    private JLabel progressLabel;
-    private SerialPort serialPort;
+    private final ProgressOverlay progressOverlay = new ProgressOverlay();
+    private static final String EXPORT_TASK = "export";
+    private static final String IMPORT_TASK = "import";
+    private static final int RECENT_SCAN_LIMIT = 50;
+    private final DefaultListModel<String> recentScansModel = new DefaultListModel<>();
+    private final DefaultListModel<Integer> pendingEnrollmentsModel = new DefaultListModel<>();
+    private JList<Integer> pendingEnrollmentsList;
+    private AttendanceReportsPanel reportsPanel;
+    // Service calls that read or write files, or wait on the service's lock
+    // while the scan worker records a scan, run here in order, off the EDT.
+    private final ExecutorService serviceCalls = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "gui-service-calls");
+        thread.setDaemon(true);
+        return thread;
+    });
     
-    private static final Color PRIMARY_COLOR = new Color(41, 128, 185);
-    private static final Color SUCCESS_COLOR = new Color(39, 174, 96);
-    private static final Color DANGER_COLOR = new Color(231, 76, 60);
-    private static final Color BACKGROUND_COLOR = new Color(236, 240, 241);
-    private static final Color CARD_COLOR = Color.WHITE;
-    private static final Color TEXT_PRIMARY = new Color(44, 62, 80);
-    private static final Color TEXT_SECONDARY = new Color(127, 140, 141);
-    private static final Color HEADER_COLOR = new Color(52, 73, 94);
-    private static final Color TABLE_HEADER_COLOR = new Color(70, 130, 180);
+    static final Color PRIMARY_COLOR = new Color(41, 128, 185);
+    static final Color SUCCESS_COLOR = new Color(39, 174, 96);
+    static final Color DANGER_COLOR = new Color(231, 76, 60);
+    static final Color BACKGROUND_COLOR = new Color(236, 240, 241);
+    static final Color CARD_COLOR = Color.WHITE;
+    static final Color TEXT_PRIMARY = new Color(44, 62, 80);
+    static final Color TEXT_SECONDARY = new Color(127, 140, 141);
+    static final Color HEADER_COLOR = new Color(52, 73, 94);
+    static final Color TABLE_HEADER_COLOR = new Color(70, 130, 180);
     
-    public AttendanceGUI() {
+    public AttendanceGUI(AttendanceService service, List<String> portNames, InetSocketAddress httpAddress) {
+        this.service = service;
         setTitle("Biometric Attendance System");
-        setSize(1000, 600);
+        setSize(1280, 650);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
         getContentPane().setBackground(BACKGROUND_COLOR);
@@ -48,25 +75,23 @@ public class AttendanceGUI extends JFrame {
         
         JPanel headerPanel = createHeaderPanel();
         
-        tableModel = new DefaultTableModel() {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
-        tableModel.addColumn("Student ID");
-        tableModel.addColumn("Name");
-        tableModel.addColumn("Fingerprint ID");
-        tableModel.addColumn("Status");
-        tableModel.addColumn("Last Scan");
+        tableModel = new StudentTableModel();
         
         studentTable = new JTable(tableModel);
+        tableSorter = new TableRowSorter<>(tableModel);
+        rowFilter = new StudentRowFilter(tableModel.getIndex());
+        studentTable.setRowSorter(tableSorter);
         styleTable();
         
         JScrollPane scrollPane = new JScrollPane(studentTable);
         scrollPane.setBorder(BorderFactory.createLineBorder(new Color(189, 195, 199), 1));
         scrollPane.getViewport().setBackground(CARD_COLOR);
         
+        JPanel tablePanel = new JPanel(new BorderLayout(0, 10));
+        tablePanel.setBackground(BACKGROUND_COLOR);
+        tablePanel.add(createSearchPanel(), BorderLayout.NORTH);
+        tablePanel.add(scrollPane, BorderLayout.CENTER);
+        
         JPanel statusPanel = createStatusPanel();
         
         JPanel buttonPanel = createButtonPanel();
@@ -76,27 +101,120 @@ public class AttendanceGUI extends JFrame {
         JPanel centerPanel = new JPanel(new BorderLayout(10, 10));
         centerPanel.setBackground(BACKGROUND_COLOR);
         centerPanel.add(buttonPanel, BorderLayout.NORTH);
-        centerPanel.add(scrollPane, BorderLayout.CENTER);
+        reportsPanel = new AttendanceReportsPanel(service);
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.setFont(new Font("Segoe UI", Font.BOLD, 13));
+        tabs.addTab("Roster", tablePanel);
+        tabs.addTab("Reports", reportsPanel);
+        tabs.addChangeListener(e -> {
+            if (tabs.getSelectedComponent() == reportsPanel) {
+                reportsPanel.refresh(true);
+            }
+        });
+        centerPanel.add(tabs, BorderLayout.CENTER);
+        centerPanel.add(createActivityPanel(), BorderLayout.EAST);
         
         mainPanel.add(centerPanel, BorderLayout.CENTER);
         mainPanel.add(statusPanel, BorderLayout.SOUTH);
         
         add(mainPanel);
+        setGlassPane(progressOverlay);
         
-        loadStudentData();
+        service.addListener(new ServiceListener());
         
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (arduinoPort != null && arduinoPort.isOpen()) {
-                    arduinoPort.closePort();
+                if (httpServer != null) {
+                    httpServer.close();
                 }
-                saveStudentData();
+                service.close();
             }
         });
         
         setVisible(true);
-        setupSerialPort("COM7");	
+        startService(portNames, httpAddress);
+    }
+    
+    /*
+     * Loading the snapshot, replaying the journal and opening the history
+     * run on serviceCalls; the roster is shown from the service's
+     * dataReloaded, and the API and scanners start once the data is in.
+     */
+    private void startService(List<String> portNames, InetSocketAddress httpAddress) {
+        serviceCalls.execute(new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                service.start();
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    showStyledDialog("Error loading data: " + e.getCause().getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (httpAddress != null) {
+                    try {
+                        httpServer = new AttendanceHttpServer(service, httpAddress);
+                        httpServer.start();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        showStyledDialog("Could not start the HTTP API on " + httpAddress + ": " + e.getMessage(), "HTTP Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+                service.startScanners(portNames);
+            }
+        });
+    }
+    
+    /*
+     * Hands every service callback over to the EDT.
+     */
+    private class ServiceListener implements AttendanceService.Listener {
+        @Override
+        public void statusChanged(String message) {
+            updateStatus(message);
+        }
+        
+        @Override
+        public void connectionChanged(String message, boolean connected) {
+            updateConnectionStatus(message, connected);
+        }
+        
+        @Override
+        public void errorOccurred(String title, String message) {
+            SwingUtilities.invokeLater(() -> showStyledDialog(message, title, JOptionPane.ERROR_MESSAGE));
+        }
+        
+        @Override
+        public void scanStateChanged(ScannerSession session, ScanStateMachine.State state, String message) {
+            if (state == ScanStateMachine.State.COMMITTED || state == ScanStateMachine.State.FAILED) {
+                progressOverlay.hideTask(session);
+            } else {
+                progressOverlay.showTask(session, "Processing Fingerprint", message);
+            }
+        }
+        
+        @Override
+        public void scanRecorded(ScannerSession session, StudentRecord record, boolean enrolled, long postedNanos) {
+            SwingUtilities.invokeLater(() -> showScanResult(session, record, enrolled, postedNanos));
+        }
+        
+        @Override
+        public void studentUpdated(StudentRecord record) {
+            SwingUtilities.invokeLater(() -> showStudent(record));
+        }
+        
+        @Override
+        public void dataReloaded() {
+            SwingUtilities.invokeLater(AttendanceGUI.this::showRoster);
+        }
     }
     
     private JPanel createHeaderPanel() {
@@ -148,19 +266,178 @@ public class AttendanceGUI extends JFrame {
         
         JButton refreshBtn = createStyledButton("Refresh", PRIMARY_COLOR);
         JButton exportBtn = createStyledButton("Export to CSV", SUCCESS_COLOR);
+        JButton importBtn = createStyledButton("Import Roster", PRIMARY_COLOR);
         JButton clearDataBtn = createStyledButton("Clear All Data", DANGER_COLOR);
         
         refreshBtn.addActionListener(e -> loadStudentData());
         exportBtn.addActionListener(e -> exportToCSV());
+        importBtn.addActionListener(e -> importRoster());
         clearDataBtn.addActionListener(e -> clearAllData());
         
+        daySelector = new JComboBox<>();
+        daySelector.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        daySelector.setPreferredSize(new Dimension(160, 38));
+        daySelector.addActionListener(e -> {
+            Object selected = daySelector.getSelectedItem();
+            LocalDate day = selected instanceof LocalDate ? (LocalDate) selected : null;
+            if (day == null ? viewedDay != null : !day.equals(viewedDay)) {
+                viewedDay = day;
+                showSelectedView();
+            }
+        });
+        
+        JLabel dayLabel = new JLabel("View:");
+        dayLabel.setFont(new Font("Segoe UI", Font.BOLD, 13));
+        dayLabel.setForeground(TEXT_PRIMARY);
+        
         buttonPanel.add(refreshBtn);
         buttonPanel.add(exportBtn);
+        buttonPanel.add(importBtn);
         buttonPanel.add(clearDataBtn);
+        buttonPanel.add(dayLabel);
+        buttonPanel.add(daySelector);
         
         return buttonPanel;
     }
     
+    private JPanel createSearchPanel() {
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
+        searchPanel.setBackground(CARD_COLOR);
+        searchPanel.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(new Color(189, 195, 199), 1),
+            BorderFactory.createEmptyBorder(5, 15, 5, 15)
+        ));
+        
+        JLabel searchLabel = new JLabel("Search:");
+        searchLabel.setFont(new Font("Segoe UI", Font.BOLD, 13));
+        searchLabel.setForeground(TEXT_PRIMARY);
+        
+        JTextField searchField = new JTextField(24);
+        searchField.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        searchField.setToolTipText("Name, student ID or fingerprint ID (prefix)");
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                rowFilter.setText(searchField.getText());
+                applyRowFilter();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                rowFilter.setText(searchField.getText());
+                applyRowFilter();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        
+        JComboBox<String> statusFilter = new JComboBox<>(new String[] {"All Statuses", StudentRecord.PRESENT, StudentRecord.ABSENT});
+        statusFilter.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        statusFilter.addActionListener(e -> {
+            int selected = statusFilter.getSelectedIndex();
+            rowFilter.setStatus(selected == 0 ? null : statusFilter.getItemAt(selected));
+            applyRowFilter();
+        });
+        
+        JComboBox<StudentRowFilter.DateRange> dateFilter = new JComboBox<>(StudentRowFilter.DateRange.values());
+        dateFilter.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        dateFilter.addActionListener(e -> {
+            rowFilter.setDateRange((StudentRowFilter.DateRange) dateFilter.getSelectedItem());
+            applyRowFilter();
+        });
+        
+        matchCountLabel = new JLabel(" ");
+        matchCountLabel.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        matchCountLabel.setForeground(TEXT_SECONDARY);
+        tableModel.addTableModelListener(e -> updateMatchCount());
+        
+        searchPanel.add(searchLabel);
+        searchPanel.add(searchField);
+        searchPanel.add(statusFilter);
+        searchPanel.add(dateFilter);
+        searchPanel.add(matchCountLabel);
+        
+        return searchPanel;
+    }
+    
+    private void applyRowFilter() {
+        tableSorter.setRowFilter(rowFilter.isActive() ? rowFilter : null);
+        updateMatchCount();
+    }
+    
+    private void updateMatchCount() {
+        if (rowFilter.isActive()) {
+            matchCountLabel.setText("Showing " + rowFilter.getMatchCount() + " of " + tableModel.getRowCount());
+        } else {
+            matchCountLabel.setText(tableModel.getRowCount() + " students");
+        }
+    }
+    
+    private JPanel createActivityPanel() {
+        JPanel activityPanel = new JPanel(new GridLayout(2, 1, 10, 10));
+        activityPanel.setBackground(BACKGROUND_COLOR);
+        activityPanel.setPreferredSize(new Dimension(300, 0));
+        
+        JList<String> recentScansList = new JList<>(recentScansModel);
+        recentScansList.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        recentScansList.setForeground(TEXT_PRIMARY);
+        
+        pendingEnrollmentsList = new JList<>(pendingEnrollmentsModel);
+        pendingEnrollmentsList.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        pendingEnrollmentsList.setForeground(TEXT_PRIMARY);
+        pendingEnrollmentsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        pendingEnrollmentsList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                int fingerprintID = (Integer) value;
+                return super.getListCellRendererComponent(list,
+                    AttendanceService.defaultStudentID(fingerprintID) + "  -  Fingerprint ID " + fingerprintID,
+                    index, isSelected, cellHasFocus);
+            }
+        });
+        pendingEnrollmentsList.addMouseListener(new java.awt.event.MouseAdapter() {
+            public void mouseClicked(java.awt.event.MouseEvent evt) {
+                if (evt.getClickCount() == 2) {
+                    nameSelectedStudent();
+                }
+            }
+        });
+        
+        JButton nameBtn = createStyledButton("Name Student", PRIMARY_COLOR);
+        nameBtn.addActionListener(e -> nameSelectedStudent());
+        
+        activityPanel.add(createListCard("Recent Scans", recentScansList, null));
+        activityPanel.add(createListCard("Pending Enrollments", pendingEnrollmentsList, nameBtn));
+        
+        return activityPanel;
+    }
+    
+    private JPanel createListCard(String title, JList<?> list, JButton action) {
+        JPanel card = new JPanel(new BorderLayout(5, 5));
+        card.setBackground(CARD_COLOR);
+        card.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(new Color(189, 195, 199), 1),
+            BorderFactory.createEmptyBorder(10, 10, 10, 10)
+        ));
+        
+        JLabel titleLabel = new JLabel(title);
+        titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        titleLabel.setForeground(HEADER_COLOR);
+        
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setBorder(BorderFactory.createEmptyBorder());
+        
+        card.add(titleLabel, BorderLayout.NORTH);
+        card.add(scrollPane, BorderLayout.CENTER);
+        if (action != null) {
+            card.add(action, BorderLayout.SOUTH);
+        }
+        return card;
+    }
+    
     private JButton createStyledButton(String text, Color color) {
         JButton button = new JButton(text);
         button.setFont(new Font("Segoe UI", Font.BOLD, 13));
@@ -223,7 +500,7 @@ public class AttendanceGUI extends JFrame {
                 Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
                 setHorizontalAlignment(CENTER);
                 
-                if (value != null && value.toString().equals("Present")) {
+                if (StudentRecord.PRESENT.equals(value)) {
                     setForeground(SUCCESS_COLOR);
                     setFont(getFont().deriveFont(Font.BOLD));
                 } else {
@@ -246,6 +523,10 @@ public class AttendanceGUI extends JFrame {
 
                 Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
 
+                if (value instanceof Long) {
+                    setText(Timestamps.format((Long) value));
+                }
+
                 if (!isSelected) {
                     setBackground(row % 2 == 0 ? CARD_COLOR : new Color(248, 249, 250));
                 }
@@ -264,123 +545,46 @@ public class AttendanceGUI extends JFrame {
         }
     }
     
-    private void showProgressDialog(String title, String message) {
-        SwingUtilities.invokeLater(() -> {
-            if (progressDialog != null && progressDialog.isVisible()) {
-                return; 
+    /*
+     * The roster is shown again from the service's dataReloaded.
+     */
+    private void loadStudentData() {
+        serviceCalls.execute(new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                service.reload();
+                return null;
             }
             
-            progressDialog = new JDialog(this, title, false);
-            progressDialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
-            progressDialog.setSize(400, 150);
-            progressDialog.setLocationRelativeTo(this);
-            progressDialog.setResizable(false);
-            
-            JPanel panel = new JPanel(new BorderLayout(10, 10));
-            panel.setBackground(CARD_COLOR);
-            panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-            
-            progressLabel = new JLabel(message);
-            progressLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
-            progressLabel.setForeground(TEXT_PRIMARY);
-            progressLabel.setHorizontalAlignment(SwingConstants.CENTER);
-            
-            progressBar = new JProgressBar();
-            progressBar.setIndeterminate(true);
-            progressBar.setPreferredSize(new Dimension(350, 30));
-            progressBar.setForeground(PRIMARY_COLOR);
-            
-            panel.add(progressLabel, BorderLayout.NORTH);
-            panel.add(progressBar, BorderLayout.CENTER);
-            
-            progressDialog.add(panel);
-            progressDialog.setVisible(true);
-        });
-    }
-    
-    private void updateProgressDialog(String message) {
-        SwingUtilities.invokeLater(() -> {
-            if (progressLabel != null && progressDialog != null && progressDialog.isVisible()) {
-                progressLabel.setText(message);
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    showStyledDialog("Error loading data: " + e.getCause().getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
         });
     }
     
-    private void hideProgressDialog() {
-        SwingUtilities.invokeLater(() -> {
-            if (progressDialog != null) {
-                progressDialog.setVisible(false);
-                progressDialog.dispose();
-                progressDialog = null;
-                progressLabel = null;
-                progressBar = null;
-            }
-            processingFingerprint = false;
-        });
-    }
-    
-    private static class Student implements Serializable {
-        String studentID;
-        String name;
-        int fingerprintID;
-        String status;
-        String lastScan;
-        
-        Student(String studentID, String name, int fingerprintID, String status, String lastScan) {
-            this.studentID = studentID;
-            this.name = name;
-            this.fingerprintID = fingerprintID;
-            this.status = status;
-            this.lastScan = lastScan;
-        }
-    }
-    
-    private void saveStudentData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            ArrayList<Student> students = new ArrayList<>();
-            for (int i = 0; i < tableModel.getRowCount(); i++) {
-                students.add(new Student(
-                    tableModel.getValueAt(i, 0).toString(),
-                    tableModel.getValueAt(i, 1).toString(),
-                    Integer.parseInt(tableModel.getValueAt(i, 2).toString()),
-                    tableModel.getValueAt(i, 3).toString(),
-                    tableModel.getValueAt(i, 4).toString()
-                ));
-            }
-            oos.writeObject(students);
-            System.out.println("Data saved successfully!");
-        } catch (IOException e) {
-            e.printStackTrace();
-            showStyledDialog("Error saving data: " + e.getMessage(), "Save Error", JOptionPane.ERROR_MESSAGE);
-        }
-    }
-    
-    @SuppressWarnings("unchecked")
-    private void loadStudentData() {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("No saved data found. Starting fresh.");
-            return;
+    private void showRoster() {
+        List<StudentRecord> records = service.students();
+        refreshHistoryDays();
+        pendingEnrollmentsModel.clear();
+        for (StudentRecord record : records) {
+            if (AttendanceService.isPendingName(record)) {
+                pendingEnrollmentsModel.addElement(record.fingerprintID);
+            }
         }
         
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-            ArrayList<Student> students = (ArrayList<Student>) ois.readObject();
-            tableModel.setRowCount(0);
-            for (Student student : students) {
-                tableModel.addRow(new Object[]{
-                    student.studentID, 
-                    student.name, 
-                    student.fingerprintID, 
-                    student.status,
-                    student.lastScan
-                });
-            }
-            System.out.println("Loaded " + students.size() + " students from storage.");
-            updateStatus("Loaded " + students.size() + " students from storage.");
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            showStyledDialog("Error loading data: " + e.getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
+        if (reportsPanel.isShowing()) {
+            reportsPanel.refresh(true);
         }
+        updateStatus("Loaded " + records.size() + " students from storage. Session "
+            + service.getCurrentSession() + ": " + service.presentCount() + " present.");
     }
     
     private void clearAllData() {
@@ -391,49 +595,159 @@ public class AttendanceGUI extends JFrame {
             JOptionPane.WARNING_MESSAGE);
         
         if (confirm == JOptionPane.YES_OPTION) {
-
-            tableModel.setRowCount(0);
-
-            saveStudentData();
-            File file = new File(DATA_FILE);
-            if (file.exists()) file.delete();
-
-            if (arduinoPort != null && arduinoPort.isOpen()) {
-                try {
-                    arduinoPort.getOutputStream().write("CLEARFP\n".getBytes());
-                    arduinoPort.getOutputStream().flush();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    showStyledDialog("Failed to send CLEARFP command: " + e.getMessage(), "Serial Error", JOptionPane.ERROR_MESSAGE);
-                }
-            }
-
-            updateStatus("All local data + fingerprint data cleared.");
+            recentScansModel.clear();
+            serviceCalls.execute(service::clearAll);
         }
     }
     
     private void exportToCSV() {
+        Object[] modes = {"All Students", "Since Last Export", "Single Day"};
+        int mode = JOptionPane.showOptionDialog(this,
+            "Which rows should be exported?",
+            "Export to CSV",
+            JOptionPane.DEFAULT_OPTION,
+            JOptionPane.QUESTION_MESSAGE,
+            null, modes, modes[0]);
+        if (mode < 0) {
+            return;
+        }
+        
+        LongPredicate filter;
+        String defaultName;
+        if (mode == 1) {
+            long lastExport = readLastExportTime();
+            filter = lastScan -> lastScan > lastExport;
+            defaultName = "attendance_since_" + (lastExport > 0 ? Timestamps.dayOf(lastExport) : "start") + ".csv";
+        } else if (mode == 2) {
+            String input = JOptionPane.showInputDialog(this, "Day to export (yyyy-MM-dd):", LocalDate.now().toString());
+            if (input == null) {
+                return;
+            }
+            LocalDate day;
+            try {
+                day = LocalDate.parse(input.trim());
+            } catch (DateTimeParseException e) {
+                showStyledDialog("Invalid date: " + input, "Export Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            long from = Timestamps.startOfDay(day);
+            long to = Timestamps.startOfDay(day.plusDays(1));
+            filter = lastScan -> lastScan >= from && lastScan < to;
+            defaultName = "attendance_" + day + ".csv";
+        } else {
+            filter = lastScan -> true;
+            defaultName = "attendance_data.csv";
+        }
+        
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Save as CSV");
-        fileChooser.setSelectedFile(new File("attendance_data.csv"));
-        
-        if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-            File file = fileChooser.getSelectedFile();
-            try (PrintWriter writer = new PrintWriter(file)) {
-                writer.println("Student ID,Name,Fingerprint ID,Status,Last Scan");
-                for (int i = 0; i < tableModel.getRowCount(); i++) {
-                    writer.println(String.format("%s,%s,%s,%s,%s",
-                        tableModel.getValueAt(i, 0),
-                        tableModel.getValueAt(i, 1),
-                        tableModel.getValueAt(i, 2),
-                        tableModel.getValueAt(i, 3),
-                        tableModel.getValueAt(i, 4)
-                    ));
+        fileChooser.setSelectedFile(new File(defaultName));
+        
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path target = fileChooser.getSelectedFile().toPath();
+        long exportStartedAt = System.currentTimeMillis();
+        List<StudentRecord> records = service.students();
+        boolean updatesMarker = mode != 2;
+        
+        progressOverlay.showTask(EXPORT_TASK, "Exporting", "Exporting " + records.size() + " students...");
+        new SwingWorker<Integer, Integer>() {
+            @Override
+            protected Integer doInBackground() throws IOException {
+                return CsvExporter.export(records, filter, target,
+                    (processed, total) -> publish(total == 0 ? 100 : (int) (processed * 100L / total)));
+            }
+            
+            @Override
+            protected void process(List<Integer> chunks) {
+                int percent = chunks.get(chunks.size() - 1);
+                progressOverlay.updateTask(EXPORT_TASK, "Exporting... " + percent + "%", percent);
+            }
+            
+            @Override
+            protected void done() {
+                progressOverlay.hideTask(EXPORT_TASK);
+                try {
+                    int written = get();
+                    if (updatesMarker) {
+                        writeLastExportTime(exportStartedAt);
+                    }
+                    updateStatus("Exported " + written + " rows to " + target.getFileName());
+                    showStyledDialog("Data exported successfully!\n\n" + written + " rows written.", "Export Success", JOptionPane.INFORMATION_MESSAGE);
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    showStyledDialog("Error exporting: " + e.getCause().getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }.execute();
+    }
+    
+    /*
+     * Parses and applies the file off the EDT; the table refreshes once, from
+     * the service's dataReloaded, when the whole batch is in.
+     */
+    private void importRoster() {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Import Roster (Student ID, Name, optional Fingerprint ID)");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV or TSV files", "csv", "tsv", "txt"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path source = fileChooser.getSelectedFile().toPath();
+        
+        progressOverlay.showTask(IMPORT_TASK, "Importing", "Importing " + source.getFileName() + "...");
+        new SwingWorker<RosterImporter.Result, Void>() {
+            @Override
+            protected RosterImporter.Result doInBackground() throws IOException {
+                return service.importRoster(RosterImporter.parse(source));
+            }
+            
+            @Override
+            protected void done() {
+                progressOverlay.hideTask(IMPORT_TASK);
+                try {
+                    RosterImporter.Result result = get();
+                    String summary = result.added + " students added, " + result.updated + " updated.";
+                    if (result.errors.isEmpty()) {
+                        showStyledDialog("Roster imported successfully!\n\n" + summary, "Import Success", JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    JTextArea errors = new JTextArea(String.join("\n", result.errors), 12, 50);
+                    errors.setEditable(false);
+                    JPanel panel = new JPanel(new BorderLayout(5, 5));
+                    panel.add(new JLabel(summary + " " + result.errors.size() + " rows were rejected:"), BorderLayout.NORTH);
+                    panel.add(new JScrollPane(errors), BorderLayout.CENTER);
+                    JOptionPane.showMessageDialog(AttendanceGUI.this, panel, "Import Finished With Errors", JOptionPane.WARNING_MESSAGE);
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    showStyledDialog("Error importing: " + e.getCause().getMessage(), "Import Error", JOptionPane.ERROR_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
-                showStyledDialog("Data exported successfully!", "Export Success", JOptionPane.INFORMATION_MESSAGE);
-            } catch (IOException e) {
-                showStyledDialog("Error exporting: " + e.getMessage(), "Export Error", JOptionPane.ERROR_MESSAGE);
             }
+        }.execute();
+    }
+    
+    private static long readLastExportTime() {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(EXPORT_STATE_FILE)) {
+            properties.load(in);
+            return Long.parseLong(properties.getProperty("lastExport", "0"));
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+    
+    private static void writeLastExportTime(long epochMillis) {
+        Properties properties = new Properties();
+        properties.setProperty("lastExport", Long.toString(epochMillis));
+        try (OutputStream out = new FileOutputStream(EXPORT_STATE_FILE)) {
+            properties.store(out, "Last CSV export");
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
     
@@ -448,38 +762,133 @@ public class AttendanceGUI extends JFrame {
         });
     }
     
-    private int findStudentByFingerprintID(int fingerprintID) {
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            if (Integer.parseInt(tableModel.getValueAt(i, 2).toString()) == fingerprintID) {
-                return i;
+    /*
+     * Lists the days in the history, then shows the selected one (or the
+     * live roster if that day is gone).
+     */
+    private void refreshHistoryDays() {
+        serviceCalls.execute(new SwingWorker<List<LocalDate>, Void>() {
+            @Override
+            protected List<LocalDate> doInBackground() throws IOException {
+                return service.historyDays();
             }
-        }
-        return -1;
+            
+            @Override
+            protected void done() {
+                List<LocalDate> days = new ArrayList<>();
+                try {
+                    days = get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                DefaultComboBoxModel<Object> model = new DefaultComboBoxModel<>();
+                model.addElement(LIVE_VIEW);
+                for (int i = days.size() - 1; i >= 0; i--) {
+                    model.addElement(days.get(i));
+                }
+                if (viewedDay != null && model.getIndexOf(viewedDay) < 0) {
+                    viewedDay = null;
+                }
+                model.setSelectedItem(viewedDay == null ? LIVE_VIEW : viewedDay);
+                daySelector.setModel(model);
+                showSelectedView();
+            }
+        });
     }
     
-    private void markAttendance(int row, int fingerprintID) {
-        String currentTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        tableModel.setValueAt("Present", row, 3);
-        tableModel.setValueAt(currentTime, row, 4);
-        
-        String studentName = tableModel.getValueAt(row, 1).toString();
-        String studentID = tableModel.getValueAt(row, 0).toString();
-        
-        updateStatus("Attendance marked for: " + studentName + " (ID: " + studentID + ")");
-        saveStudentData();
+    private void showSelectedView() {
+        if (viewedDay == null) {
+            tableModel.load(service.students());
+            return;
+        }
         
-        hideProgressDialog();
+        LocalDate day = viewedDay;
+        serviceCalls.execute(new SwingWorker<List<StudentRecord>, Void>() {
+            @Override
+            protected List<StudentRecord> doInBackground() throws IOException {
+                return service.attendanceOn(day);
+            }
+            
+            @Override
+            protected void done() {
+                if (!day.equals(viewedDay)) {
+                    // Another view was picked while this one loaded.
+                    return;
+                }
+                List<StudentRecord> roster;
+                try {
+                    roster = get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    showStyledDialog("Error reading attendance history: " + e.getCause().getMessage(), "Load Error", JOptionPane.ERROR_MESSAGE);
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                int present = 0;
+                for (StudentRecord record : roster) {
+                    if (StudentRecord.PRESENT.equals(record.status)) {
+                        present++;
+                    }
+                }
+                tableModel.load(roster);
+                updateStatus("Showing attendance for " + day + ": " + present + " of "
+                    + roster.size() + " students present");
+            }
+        });
+    }
+    
+    private void showScanResult(ScannerSession session, StudentRecord record, boolean enrolled, long postedNanos) {
+        LocalDate scanDay = Timestamps.dayOf(record.lastScan);
+        if ((viewedDay == null || viewedDay.equals(scanDay)) && !tableModel.put(record)) {
+            showSelectedView();
+        }
+        if (((DefaultComboBoxModel<Object>) daySelector.getModel()).getIndexOf(scanDay) < 0) {
+            daySelector.insertItemAt(scanDay, 1);
+        }
+        service.getMetrics().record(ScanMetrics.Stage.TABLE_UPDATE, System.nanoTime() - postedNanos);
         
-        showStyledDialog(
-            "Attendance Marked!\n\nName: " + studentName + 
-            "\nStudent ID: " + studentID + 
-            "\nTime: " + currentTime,
-            "Attendance Success", 
-            JOptionPane.INFORMATION_MESSAGE);
+        String summary = Timestamps.formatClock(record.lastScan) + "  " + record.name + " (" + record.studentID + ")";
+        if (enrolled) {
+            summary += "  NEW";
+            if (!pendingEnrollmentsModel.contains(record.fingerprintID)) {
+                pendingEnrollmentsModel.addElement(record.fingerprintID);
+            }
+        }
+        if (service.getSessions().size() > 1) {
+            summary += "  [" + session.getPortName() + "]";
+        }
+        recentScansModel.add(0, summary);
+        if (recentScansModel.size() > RECENT_SCAN_LIMIT) {
+            recentScansModel.remove(RECENT_SCAN_LIMIT);
+        }
+    }
+    
+    private void showStudent(StudentRecord record) {
+        if (viewedDay != null || !tableModel.put(record)) {
+            showSelectedView();
+        }
+        if (AttendanceService.isPendingName(record)) {
+            if (!pendingEnrollmentsModel.contains(record.fingerprintID)) {
+                pendingEnrollmentsModel.addElement(record.fingerprintID);
+            }
+        } else {
+            pendingEnrollmentsModel.removeElement(record.fingerprintID);
+        }
     }
     
-    private void enrollNewStudent(int fingerprintID) {
-        hideProgressDialog();
+    private void nameSelectedStudent() {
+        Integer selected = pendingEnrollmentsList.getSelectedValue();
+        if (selected == null) {
+            if (pendingEnrollmentsModel.isEmpty()) {
+                return;
+            }
+            selected = pendingEnrollmentsModel.getElementAt(0);
+        }
+        int fingerprintID = selected;
 
         String studentName = JOptionPane.showInputDialog(
             this,
@@ -489,154 +898,73 @@ public class AttendanceGUI extends JFrame {
         );
 
         if (studentName == null || studentName.trim().isEmpty()) {
-            studentName = "Student " + fingerprintID;
-        }
-
-        String studentID = "STU" + String.format("%04d", fingerprintID);
-
-        String currentTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        tableModel.addRow(new Object[]{studentID, studentName, fingerprintID, "Present", currentTime});
-        saveStudentData();
-
-        updateStatus("New student enrolled: " + studentName);
-        showStyledDialog(
-            "Student Enrolled Successfully!\n\nName: " + studentName +
-            "\nStudent ID: " + studentID +
-            "\nFingerprint ID: " + fingerprintID,
-            "Enrollment Success",
-            JOptionPane.INFORMATION_MESSAGE
-        );
-    }
-    
-    private void showStyledDialog(String message, String title, int messageType) {
-        JOptionPane.showMessageDialog(this, message, title, messageType);
-    }
-    
-    private void setupSerialPort(String portName) {
-        arduinoPort = SerialPort.getCommPort(portName);
-        arduinoPort.setBaudRate(9600);
-        arduinoPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_SEMI_BLOCKING, 100, 0);
-        
-        if (arduinoPort.openPort()) {
-            System.out.println("Port " + portName + " opened successfully!");
-            updateConnectionStatus("Connected to " + portName, true);
-            updateStatus("Connected to Arduino on " + portName);
-        } else {
-            System.out.println("Failed to open port " + portName);
-            updateConnectionStatus("Connection Failed", false);
-            updateStatus("Failed to connect to Arduino on " + portName);
-            showStyledDialog(
-                "Failed to open serial port: " + portName + 
-                "\n\nPlease check:\n1. COM port is correct\n2. Arduino is connected\n3. No other program is using the port",
-                "Connection Error", 
-                JOptionPane.ERROR_MESSAGE);
             return;
         }
-        
-        new Thread(() -> {
-            byte[] readBuffer = new byte[1024];
-            StringBuilder messageBuffer = new StringBuilder();
+        String name = studentName.trim();
+
+        // The list and table follow from the service's studentUpdated.
+        serviceCalls.execute(new SwingWorker<StudentRecord, Void>() {
+            @Override
+            protected StudentRecord doInBackground() {
+                return service.rename(fingerprintID, name);
+            }
             
-            while (arduinoPort.isOpen()) {
+            @Override
+            protected void done() {
                 try {
-                    int numRead = arduinoPort.readBytes(readBuffer, readBuffer.length);
-                    if (numRead > 0) {
-                        String data = new String(readBuffer, 0, numRead);
-                        messageBuffer.append(data);
-                        
-                        String bufferContent = messageBuffer.toString();
-                        int newlineIndex;
-                        while ((newlineIndex = bufferContent.indexOf('\n')) != -1) {
-                            String line = bufferContent.substring(0, newlineIndex).trim();
-                            bufferContent = bufferContent.substring(newlineIndex + 1);
-                            messageBuffer = new StringBuilder(bufferContent);
-                            
-                            if (!line.isEmpty()) {
-                                System.out.println("Arduino: " + line);
-                                processArduinoMessage(line);
-                            }
-                        }
+                    StudentRecord record = get();
+                    if (record == null) {
+                        pendingEnrollmentsModel.removeElement(fingerprintID);
+                        return;
                     }
-                    Thread.sleep(10);
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    updateStatus("New student enrolled: " + name + " (ID: " + record.studentID + ")");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IllegalArgumentException) {
+                        showStyledDialog("Cannot use that name: " + e.getCause().getMessage(),
+                            "Enrollment Failed", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    e.getCause().printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
-        }).start();
+        });
+    }
+    
+    private void showStyledDialog(String message, String title, int messageType) {
+        JOptionPane.showMessageDialog(this, message, title, messageType);
     }
     
-    private void processArduinoMessage(String line) {
-        if (line.contains("Image taken") && !processingFingerprint) {
-            processingFingerprint = true;
-            showProgressDialog("Processing Fingerprint", "Capturing fingerprint image...");
-        } else if (processingFingerprint) {
-            if (line.contains("enrolling new fingerprint")) {
-                updateProgressDialog("Enrolling new fingerprint...");
-            } else if (line.contains("Remove finger")) {
-                updateProgressDialog("Please remove your finger...");
-            } else if (line.contains("Place same finger again")) {
-                updateProgressDialog("Please place the same finger again...");
-            } else if (line.contains("Creating model")) {
-                updateProgressDialog("Creating fingerprint model...");
-            } else if (line.contains("Storing model")) {
-                updateProgressDialog("Storing fingerprint data...");
-            } else if (line.contains("Enrollment successful")) {
-                updateProgressDialog("Enrollment complete!");
-            } else if (line.contains("Found ID")) {
-                updateProgressDialog("Fingerprint recognized! Marking attendance...");
+    public static void main(String[] args) {
+        boolean headless = GraphicsEnvironment.isHeadless();
+        InetSocketAddress httpAddress = null;
+        List<String> portNames = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--headless")) {
+                headless = true;
+            } else if (arg.startsWith("--http=")) {
+                httpAddress = AttendanceHttpServer.parseAddress(arg.substring("--http=".length()));
+            } else {
+                portNames.add(arg);
             }
         }
-
-        if (line.startsWith("NewID:")) {
-            try {
-                int fingerprintID = Integer.parseInt(line.split(":")[1].trim());
-                
-                if (fingerprintID <= 0) {
-                    updateStatus("Enrollment failed. Try again.");
-                    hideProgressDialog();
-                    processingFingerprint = false;
-                    return;
-                }
-
-                SwingUtilities.invokeLater(() -> {
-                    if (dialogOpen) return; 
-                    
-                    dialogOpen = true;
-                    try {
-                        int existingRow = findStudentByFingerprintID(fingerprintID);
-
-                        if (existingRow != -1) {
-                            markAttendance(existingRow, fingerprintID);
-                        } else {
-                            enrollNewStudent(fingerprintID);
-                        }
-                    } finally {
-                        dialogOpen = false;
-                    }
-                });
-            } catch (NumberFormatException e) {
-                System.err.println("Invalid fingerprint ID: " + line);
-                e.printStackTrace();
-                hideProgressDialog();
+        AttendanceService service = new AttendanceService();
+        if (headless) {
+            if (httpAddress == null) {
+                httpAddress = AttendanceHttpServer.parseAddress(Integer.toString(AttendanceHttpServer.DEFAULT_PORT));
             }
+            AttendanceHttpServer.runHeadless(service, portNames, httpAddress);
+            return;
         }
-
-        if (line.contains("Found fingerprint sensor")) {
-            updateConnectionStatus("Sensor Ready", true);
-            updateStatus("Fingerprint sensor connected and ready");
-        } else if (line.contains("Waiting for valid finger")) {
-            updateStatus("System ready - Place finger on scanner");
-            processingFingerprint = false;
-        }
-    }
-    
-    public static void main(String[] args) {
+        
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
             e.printStackTrace();
         }
         
-        SwingUtilities.invokeLater(AttendanceGUI::new);
+        InetSocketAddress address = httpAddress;
+        SwingUtilities.invokeLater(() -> new AttendanceGUI(service, portNames, address));
     }
 }
\ No newline at end of file
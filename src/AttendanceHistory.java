@@ -0,0 +1,270 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Every scan ever recorded, one memory-mapped segment file per local day
+ * (history/yyyy-MM-dd.seg). A record is 12 bytes: fingerprint ID, epoch
+ * seconds (unsigned) and the scanner it came from. Queries walk the mapped
+ * segments for the requested days only, so nothing but the touched pages is
+ * brought into memory and the heap holds no per-scan objects.
+ *
+ * A mapped file cannot be deleted on Windows until its mapping is garbage
+ * collected, so clear() empties segments in place (a record count of 0) and
+ * the next start deletes them.
+ */
+public class AttendanceHistory implements Closeable {
+
+    public interface Visitor {
+        void visit(int fingerprintID, long epochSeconds, int scannerID);
+    }
+
+    private static final String SUFFIX = ".seg";
+    private static final int MAGIC = 0x41485331;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 12;
+    private static final int COUNT_OFFSET = 8;
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final int FORCE_EVERY = 64;
+
+    private final Path directory;
+    private final Map<LocalDate, Segment> open = new HashMap<>();
+
+    public AttendanceHistory(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        // Nothing is mapped yet, so the segments clear() emptied can go.
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (recordCount(file) == 0) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    public synchronized void record(int fingerprintID, long epochMillis, int scannerID) throws IOException {
+        LocalDate day = Timestamps.dayOf(epochMillis);
+        segment(day, true).append(fingerprintID, epochMillis / 1000, scannerID);
+    }
+
+    public synchronized void forEach(LocalDate from, LocalDate to, Visitor visitor) throws IOException {
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            Segment segment = segment(day, false);
+            if (segment != null) {
+                segment.forEach(visitor);
+            }
+        }
+    }
+
+    /*
+     * Reads one day through its own read-only mapping, without taking the
+     * history lock, so several days can be read in parallel. Records are
+     * only ever appended and the count is published after each one, so a
+     * concurrent append is either seen whole or not at all.
+     */
+    public void readDay(LocalDate day, Visitor visitor) throws IOException {
+        Path path = pathOf(day);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+                throw new IOException("Not a history segment: " + path);
+            }
+            int count = (int) Math.min(buffer.getInt(COUNT_OFFSET), (size - HEADER_SIZE) / RECORD_SIZE);
+            for (int i = 0, offset = HEADER_SIZE; i < count; i++, offset += RECORD_SIZE) {
+                visitor.visit(buffer.getInt(offset),
+                        Integer.toUnsignedLong(buffer.getInt(offset + 4)),
+                        buffer.getShort(offset + 8));
+            }
+        }
+    }
+
+    public void forStudent(int fingerprintID, LocalDate from, LocalDate to, Visitor visitor) throws IOException {
+        forEach(from, to, (id, epochSeconds, scannerID) -> {
+            if (id == fingerprintID) {
+                visitor.visit(id, epochSeconds, scannerID);
+            }
+        });
+    }
+
+    public synchronized List<LocalDate> days() throws IOException {
+        List<LocalDate> days = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (recordCount(file) == 0) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                try {
+                    days.add(LocalDate.parse(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (DateTimeParseException e) {
+                    AsyncLog.info("History: ignoring " + file);
+                }
+            }
+        }
+        Collections.sort(days);
+        return days;
+    }
+
+    public synchronized void flush() throws IOException {
+        for (Segment segment : open.values()) {
+            segment.force();
+        }
+    }
+
+    public synchronized void clear() throws IOException {
+        for (LocalDate day : days()) {
+            Segment segment = open.get(day);
+            if (segment != null) {
+                segment.empty();
+            } else {
+                // readDay may have left it mapped too.
+                try (FileChannel channel = FileChannel.open(pathOf(day), StandardOpenOption.WRITE)) {
+                    channel.write(ByteBuffer.allocate(4), COUNT_OFFSET);
+                    channel.force(false);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeSegments();
+    }
+
+    private void closeSegments() {
+        for (Segment segment : open.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                AsyncLog.error("History: error closing a segment", e);
+            }
+        }
+        open.clear();
+    }
+
+    /*
+     * The count in the segment's header, read without mapping it.
+     */
+    private static int recordCount(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer count = ByteBuffer.allocate(4);
+            return channel.read(count, COUNT_OFFSET) < 4 ? 0 : count.getInt(0);
+        }
+    }
+
+    private Path pathOf(LocalDate day) {
+        return directory.resolve(day + SUFFIX);
+    }
+
+    private Segment segment(LocalDate day, boolean create) throws IOException {
+        Segment segment = open.get(day);
+        if (segment == null) {
+            Path path = pathOf(day);
+            if (!create && !Files.exists(path)) {
+                return null;
+            }
+            segment = new Segment(path);
+            open.put(day, segment);
+        }
+        return segment;
+    }
+
+    private static final class Segment {
+        private final FileChannel channel;
+        private MappedByteBuffer buffer;
+        private int capacity;
+        private int count;
+        private int unforced;
+
+        Segment(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size == 0) {
+                map(INITIAL_CAPACITY);
+                buffer.putInt(0, MAGIC);
+                buffer.putShort(4, VERSION);
+                buffer.putShort(6, (short) RECORD_SIZE);
+                buffer.putInt(COUNT_OFFSET, 0);
+            } else {
+                map((int) ((size - HEADER_SIZE) / RECORD_SIZE));
+                if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+                        || buffer.getShort(6) != RECORD_SIZE) {
+                    channel.close();
+                    throw new IOException("Not a history segment: " + path);
+                }
+                count = Math.min(buffer.getInt(COUNT_OFFSET), capacity);
+            }
+        }
+
+        void append(int fingerprintID, long epochSeconds, int scannerID) throws IOException {
+            if (count == capacity) {
+                map(capacity * 2);
+            }
+            int offset = HEADER_SIZE + count * RECORD_SIZE;
+            buffer.putInt(offset, fingerprintID);
+            buffer.putInt(offset + 4, (int) epochSeconds);
+            buffer.putShort(offset + 8, (short) scannerID);
+            buffer.putShort(offset + 10, (short) 0);
+            // The count is published after the record so a reader never sees a half-written slot.
+            buffer.putInt(COUNT_OFFSET, ++count);
+            if (++unforced >= FORCE_EVERY) {
+                force();
+            }
+        }
+
+        void forEach(Visitor visitor) {
+            for (int i = 0, offset = HEADER_SIZE; i < count; i++, offset += RECORD_SIZE) {
+                visitor.visit(buffer.getInt(offset),
+                        Integer.toUnsignedLong(buffer.getInt(offset + 4)),
+                        buffer.getShort(offset + 8));
+            }
+        }
+
+        void empty() {
+            count = 0;
+            buffer.putInt(COUNT_OFFSET, 0);
+            unforced++;
+            force();
+        }
+
+        void force() {
+            if (unforced > 0) {
+                buffer.force();
+                unforced = 0;
+            }
+        }
+
+        void close() throws IOException {
+            force();
+            channel.close();
+        }
+
+        private void map(int records) throws IOException {
+            capacity = Math.max(records, 1);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        }
+    }
+}
@@ -0,0 +1,560 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Local HTTP/JSON front end to an AttendanceService:
+ *
+ *   GET  /api/students                       whole roster
+ *   GET  /api/students?fingerprintID=N       one student (or ?studentID=X)
+ *   POST /api/students                       enroll; form fields studentID,
+ *                                            name, fingerprintID (409 if the
+ *                                            studentID has another fingerprint)
+ *   POST /api/roster                         bulk import; body is a CSV or
+ *                                            (text/tab-separated-values) TSV
+ *                                            roster file
+ *   GET  /api/attendance?date=yyyy-MM-dd     roster as it stood that day
+ *   GET  /api/session                        current attendance session and
+ *                                            how many are present in it
+ *   GET  /api/reports?view=students          attendance rate, late days and
+ *                                            absence streaks per student
+ *   GET  /api/reports?view=days              present and late counts per
+ *                                            school day, with the day's
+ *                                            first-scan histogram
+ *   GET  /api/events                         live scans as server-sent events
+ *   GET  /api/sensors                        sensor number, capacity, free
+ *                                            and occupied slots of every
+ *                                            open scanner, as the host
+ *                                            tracks them
+ *   GET  /api/sensors?resync=true            the same, read from the
+ *                                            sensors with COUNT and LIST
+ *   DELETE /api/sensors?fingerprintID=N      delete one template
+ *
+ * Requests run on a cached pool of daemon threads; an event stream keeps its
+ * thread for as long as the client stays connected.
+ */
+public class AttendanceHttpServer implements Closeable {
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+    private static final long KEEPALIVE_SECONDS = 15;
+    private static final String CLOSE_STREAM = "";
+
+    private final AttendanceService service;
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+    public AttendanceHttpServer(AttendanceService service, InetSocketAddress address) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(address, 0);
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(workers);
+        server.createContext("/api/students", this::handleStudents);
+        server.createContext("/api/roster", this::handleRoster);
+        server.createContext("/api/attendance", this::handleAttendance);
+        server.createContext("/api/session", this::handleSession);
+        server.createContext("/api/reports", this::handleReports);
+        server.createContext("/api/events", this::handleEvents);
+        server.createContext("/api/sensors", this::handleSensors);
+    }
+
+    /*
+     * Parses "[host:]port"; without a host only local clients can connect.
+     */
+    public static InetSocketAddress parseAddress(String value) {
+        int colon = value.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(value));
+        }
+        return new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1)));
+    }
+
+    public void start() {
+        server.start();
+        AsyncLog.info("HTTP API listening on " + server.getAddress());
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        workers.shutdownNow();
+    }
+
+    /*
+     * Runs the station with no window: the service, its scanner sessions and
+     * this API, until the JVM is stopped. No port names means auto-discovery.
+     */
+    public static void runHeadless(AttendanceService service, List<String> portNames, InetSocketAddress address) {
+        service.addListener(new AttendanceService.Listener() {
+            @Override
+            public void statusChanged(String message) {
+                AsyncLog.info(message);
+            }
+
+            @Override
+            public void errorOccurred(String title, String message) {
+                AsyncLog.info(title + ": " + message);
+            }
+        });
+        try {
+            service.start();
+            AttendanceHttpServer http = new AttendanceHttpServer(service, address);
+            http.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                http.close();
+                service.close();
+            }, "shutdown"));
+        } catch (IOException e) {
+            AsyncLog.error("Could not start the HTTP API", e);
+            System.exit(1);
+        }
+        service.startScanners(portNames);
+    }
+
+    private void handleStudents(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+            if ("GET".equals(exchange.getRequestMethod())) {
+                if (query.containsKey("fingerprintID") || query.containsKey("studentID")) {
+                    StudentRecord record = query.containsKey("fingerprintID")
+                        ? service.findByFingerprint(Integer.parseInt(query.get("fingerprintID")))
+                        : service.findByStudentID(query.get("studentID"));
+                    if (record == null) {
+                        sendError(exchange, 404, "No such student");
+                    } else {
+                        sendJson(exchange, 200, appendStudent(new StringBuilder(), record).toString());
+                    }
+                } else {
+                    sendJson(exchange, 200, appendStudents(new StringBuilder(), service.students()).toString());
+                }
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                Map<String, String> form = parseForm(readBody(exchange));
+                String studentID = form.get("studentID");
+                String name = form.get("name");
+                String fingerprintID = form.get("fingerprintID");
+                if (studentID == null || studentID.isBlank() || name == null || name.isBlank() || fingerprintID == null) {
+                    sendError(exchange, 400, "studentID, name and fingerprintID are required");
+                    return;
+                }
+                int fingerprint = Integer.parseInt(fingerprintID.trim());
+                String problem = RosterImporter.validate(studentID.trim(), name.trim());
+                if (problem != null) {
+                    sendError(exchange, 400, problem);
+                    return;
+                }
+                StudentRecord record;
+                try {
+                    record = service.enroll(studentID.trim(), name.trim(), fingerprint);
+                } catch (IllegalArgumentException e) {
+                    sendError(exchange, 409, e.getMessage());
+                    return;
+                }
+                sendJson(exchange, 201, appendStudent(new StringBuilder(), record).toString());
+            } else {
+                sendError(exchange, 405, "Method not allowed");
+            }
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "fingerprintID must be a number");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleRoster(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            boolean tabs = contentType != null && contentType.startsWith("text/tab-separated-values");
+            List<String> lines = new ArrayList<>(Arrays.asList(readBody(exchange).split("\r?\n")));
+            RosterImporter.Result result = service.importRoster(RosterImporter.parse(lines, tabs));
+            StringBuilder json = new StringBuilder();
+            json.append("{\"added\":").append(result.added).append(",\"updated\":").append(result.updated)
+                .append(",\"errors\":[");
+            for (int i = 0; i < result.errors.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(quote(result.errors.get(i)));
+            }
+            sendJson(exchange, 200, json.append("]}").toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleAttendance(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+            LocalDate day = query.containsKey("date") ? LocalDate.parse(query.get("date")) : LocalDate.now();
+            List<StudentRecord> roster = service.attendanceOn(day);
+            int present = 0;
+            for (StudentRecord record : roster) {
+                if (StudentRecord.PRESENT.equals(record.status)) {
+                    present++;
+                }
+            }
+            StringBuilder json = new StringBuilder();
+            json.append("{\"date\":\"").append(day).append("\",\"present\":").append(present)
+                .append(",\"total\":").append(roster.size()).append(",\"students\":");
+            appendStudents(json, roster).append('}');
+            sendJson(exchange, 200, json.toString());
+        } catch (DateTimeParseException e) {
+            sendError(exchange, 400, "date must be yyyy-MM-dd");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSession(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            SessionSchedule.Session session = service.getCurrentSession();
+            StringBuilder json = new StringBuilder();
+            json.append("{\"session\":").append(quote(session.label))
+                .append(",\"start\":").append(quote(Timestamps.format(session.start)))
+                .append(",\"end\":").append(quote(Timestamps.format(session.end)))
+                .append(",\"present\":").append(service.presentCount())
+                .append(",\"total\":").append(service.studentCount()).append('}');
+            sendJson(exchange, 200, json.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleReports(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            AttendanceAnalytics analytics = service.getAnalytics();
+            if (analytics == null) {
+                sendError(exchange, 503, "Attendance history is not available");
+                return;
+            }
+            String view = parseForm(exchange.getRequestURI().getRawQuery()).getOrDefault("view", "students");
+            StringBuilder json = new StringBuilder();
+            json.append("{\"schoolDays\":").append(analytics.schoolDays())
+                .append(",\"bucketMinutes\":").append(AttendanceAnalytics.BUCKET_MINUTES);
+            if (view.equals("students")) {
+                List<StudentRecord> records = service.students();
+                List<Integer> fingerprintIDs = new ArrayList<>(records.size());
+                for (StudentRecord record : records) {
+                    fingerprintIDs.add(record.fingerprintID);
+                }
+                List<AttendanceAnalytics.StudentStats> stats = analytics.students(fingerprintIDs);
+                json.append(",\"students\":[");
+                for (int i = 0; i < records.size(); i++) {
+                    AttendanceAnalytics.StudentStats student = stats.get(i);
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    json.append("{\"studentID\":").append(quote(records.get(i).studentID))
+                        .append(",\"fingerprintID\":").append(student.fingerprintID)
+                        .append(",\"daysPresent\":").append(student.daysPresent)
+                        .append(",\"lateDays\":").append(student.lateDays)
+                        .append(",\"attendanceRate\":").append(Math.round(student.attendanceRate() * 10) / 10.0)
+                        .append(",\"averageFirstScan\":").append(student.averageFirstScan < 0 ? "null"
+                            : quote(LocalTime.ofSecondOfDay(student.averageFirstScan).toString()))
+                        .append(",\"currentAbsenceStreak\":").append(student.currentAbsenceStreak)
+                        .append(",\"longestAbsenceStreak\":").append(student.longestAbsenceStreak).append('}');
+                }
+                json.append("]}");
+            } else if (view.equals("days")) {
+                List<LocalDate> days = analytics.days();
+                List<int[]> counts = analytics.dailyCounts();
+                json.append(",\"days\":[");
+                for (int i = 0; i < days.size(); i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    json.append("{\"date\":\"").append(days.get(i))
+                        .append("\",\"present\":").append(counts.get(i)[0])
+                        .append(",\"late\":").append(counts.get(i)[1])
+                        .append(",\"firstScans\":").append(Arrays.toString(analytics.firstScanHistogram(days.get(i))).replace(" ", ""))
+                        .append('}');
+                }
+                json.append("]}");
+            } else {
+                sendError(exchange, 400, "view must be students or days");
+                return;
+            }
+            sendJson(exchange, 200, json.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "Method not allowed");
+            exchange.close();
+            return;
+        }
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>(EVENT_QUEUE_CAPACITY);
+        AttendanceService.Listener listener = new AttendanceService.Listener() {
+            @Override
+            public void scanRecorded(ScannerSession session, StudentRecord record, boolean enrolled, long postedNanos) {
+                StringBuilder json = new StringBuilder("{");
+                appendStudentFields(json, record)
+                    .append(",\"enrolled\":").append(enrolled)
+                    .append(",\"scanner\":").append(quote(session.getPortName())).append('}');
+                offer("scan", json.toString());
+            }
+
+            @Override
+            public void studentUpdated(StudentRecord record) {
+                offer("student", appendStudent(new StringBuilder(), record).toString());
+            }
+
+            @Override
+            public void dataReloaded() {
+                offer("reload", "{}");
+            }
+
+            // A client that stops reading is dropped rather than buffered without limit.
+            private void offer(String event, String data) {
+                if (!events.offer("event: " + event + "\ndata: " + data + "\n\n")) {
+                    events.clear();
+                    events.offer(CLOSE_STREAM);
+                }
+            }
+        };
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        service.addListener(listener);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(": connected\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            while (true) {
+                String event = events.poll(KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+                if (CLOSE_STREAM.equals(event)) {
+                    break;
+                }
+                out.write((event == null ? ": keepalive\n\n" : event).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            service.removeListener(listener);
+            exchange.close();
+        }
+    }
+
+    /*
+     * A plain GET answers from the TemplateSlotAllocator, so a polling
+     * dashboard puts nothing on the serial links. A resync asks the sensors:
+     * every command to every sensor is sent before any answer is awaited, so
+     * the scanners are queried in parallel.
+     */
+    private void handleSensors(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+            if ("GET".equals(exchange.getRequestMethod()) && !"true".equals(query.get("resync"))) {
+                sendJson(exchange, 200, trackedSensors());
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                List<ScannerSession> sessions = new ArrayList<>();
+                List<CompletableFuture<Integer>> counts = new ArrayList<>();
+                List<CompletableFuture<BitSet>> slots = new ArrayList<>();
+                for (ScannerSession session : service.getSessions()) {
+                    if (session.isOpen()) {
+                        sessions.add(session);
+                        counts.add(session.getCommands().templateCount());
+                        slots.add(session.getCommands().occupiedSlots(session.getCapacity()));
+                    }
+                }
+                StringBuilder json = new StringBuilder("[");
+                for (int i = 0; i < sessions.size(); i++) {
+                    ScannerSession session = sessions.get(i);
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    json.append("{\"scanner\":").append(session.getScannerID())
+                        .append(",\"port\":").append(quote(session.getPortName()))
+                        .append(",\"sensor\":").append(session.getSensorNumber())
+                        .append(",\"capacity\":").append(session.getCapacity());
+                    if (service.getSlotAllocator().isAttached(session.getSensorNumber())) {
+                        json.append(",\"free\":").append(service.getSlotAllocator().free(session.getSensorNumber()));
+                    }
+                    try {
+                        json.append(",\"templates\":").append(counts.get(i).get());
+                        json.append(",\"slots\":").append(slots.get(i).get().toString().replace('{', '[').replace('}', ']').replace(" ", ""));
+                    } catch (ExecutionException e) {
+                        json.append(",\"error\":").append(quote(SensorCommandChannel.describe(e)));
+                    }
+                    json.append('}');
+                }
+                sendJson(exchange, 200, json.append(']').toString());
+            } else if ("DELETE".equals(exchange.getRequestMethod())) {
+                String fingerprintID = query.get("fingerprintID");
+                CompletableFuture<Void> deleted = fingerprintID == null ? null
+                    : service.deleteTemplate(Integer.parseInt(fingerprintID));
+                if (deleted == null) {
+                    sendError(exchange, 404, "No connected sensor holds that fingerprint ID");
+                    return;
+                }
+                try {
+                    deleted.get();
+                    exchange.sendResponseHeaders(204, -1);
+                } catch (ExecutionException e) {
+                    sendError(exchange, 502, SensorCommandChannel.describe(e));
+                }
+            } else {
+                sendError(exchange, 405, "Method not allowed");
+            }
+        } catch (NumberFormatException e) {
+            sendError(exchange, 400, "fingerprintID must be a number");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String trackedSensors() {
+        TemplateSlotAllocator allocator = service.getSlotAllocator();
+        StringBuilder json = new StringBuilder("[");
+        for (ScannerSession session : service.getSessions()) {
+            if (!session.isOpen()) {
+                continue;
+            }
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"scanner\":").append(session.getScannerID())
+                .append(",\"port\":").append(quote(session.getPortName()))
+                .append(",\"sensor\":").append(session.getSensorNumber())
+                .append(",\"capacity\":").append(session.getCapacity());
+            BitSet used = allocator.used(session.getSensorNumber());
+            if (used != null) {
+                json.append(",\"free\":").append(allocator.free(session.getSensorNumber()))
+                    .append(",\"templates\":").append(used.cardinality())
+                    .append(",\"slots\":").append(used.toString().replace('{', '[').replace('}', ']').replace(" ", ""));
+            }
+            json.append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private static StringBuilder appendStudents(StringBuilder json, List<StudentRecord> records) {
+        json.append('[');
+        for (int i = 0; i < records.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendStudent(json, records.get(i));
+        }
+        return json.append(']');
+    }
+
+    private static StringBuilder appendStudent(StringBuilder json, StudentRecord record) {
+        json.append('{');
+        return appendStudentFields(json, record).append('}');
+    }
+
+    private static StringBuilder appendStudentFields(StringBuilder json, StudentRecord record) {
+        return json.append("\"studentID\":").append(quote(record.studentID))
+            .append(",\"name\":").append(quote(record.name))
+            .append(",\"fingerprintID\":").append(record.fingerprintID)
+            .append(",\"status\":").append(quote(record.status))
+            .append(",\"lastScan\":").append(record.lastScan > 0 ? quote(Timestamps.format(record.lastScan)) : "null");
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static Map<String, String> parseForm(String encoded) {
+        Map<String, String> fields = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return fields;
+        }
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            fields.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return fields;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, "{\"error\":" + quote(message) + "}");
+    }
+}
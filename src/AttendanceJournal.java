@@ -0,0 +1,455 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only log of enrollment/attendance events sitting in front of the
+ * students.dat snapshot. Appends are queued and a single writer thread commits
+ * whatever has accumulated with one fsync (group commit). Every record is
+ * framed as [length][crc32][payload] so a torn tail left by a crash is
+ * detected and cut off when the journal is reopened.
+ */
+public class AttendanceJournal implements Closeable {
+    public static final byte ENROLL = 1;
+    public static final byte ATTEND = 2;
+    public static final byte CLEAR = 3;
+    public static final byte RENAME = 4;
+
+    private static final byte BARRIER = 0;
+    private static final byte COMPACT = -1;
+    private static final byte STOP = -2;
+
+    private static final int FRAME_HEADER = 8;
+    private static final int MAX_RECORD_SIZE = 4096;
+    private static final int MAX_BATCH = 512;
+
+    public interface Listener {
+        void enrolled(String studentID, String name, int fingerprintID, long timestamp);
+        void attended(int fingerprintID, long timestamp);
+        void renamed(int fingerprintID, String name);
+        void cleared();
+    }
+
+    public interface SnapshotTask {
+        void write() throws IOException;
+    }
+
+    public interface CommitListener {
+        void committed(long enqueuedNanos, long originNanos, long committedNanos);
+    }
+
+    private static final class Entry {
+        final byte type;
+        final int fingerprintID;
+        final long timestamp;
+        final String studentID;
+        final String name;
+        final CountDownLatch done;
+        final SnapshotTask snapshot;
+        final long originNanos;
+        final long enqueuedNanos = System.nanoTime();
+
+        Entry(byte type, int fingerprintID, long timestamp, String studentID, String name,
+                CountDownLatch done, SnapshotTask snapshot) {
+            this(type, fingerprintID, timestamp, studentID, name, done, snapshot, 0);
+        }
+
+        Entry(byte type, int fingerprintID, long timestamp, String studentID, String name,
+                CountDownLatch done, SnapshotTask snapshot, long originNanos) {
+            this.type = type;
+            this.fingerprintID = fingerprintID;
+            this.timestamp = timestamp;
+            this.studentID = studentID;
+            this.name = name;
+            this.done = done;
+            this.snapshot = snapshot;
+            this.originNanos = originNanos;
+        }
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int compactionThreshold;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger recordsSinceSnapshot = new AtomicInteger();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(MAX_BATCH * 64);
+    private final CRC32 crc = new CRC32();
+    private final Thread writer;
+    // Records in the file since the last snapshot; writer thread only.
+    private int recordsInFile;
+    private boolean failed;
+    private volatile boolean compactionPending = false;
+    private volatile boolean closed = false;
+    private volatile CommitListener commitListener;
+
+    public AttendanceJournal(Path path, int compactionThreshold) throws IOException {
+        this.path = path;
+        this.compactionThreshold = compactionThreshold;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        int[] count = new int[1];
+        long validLength = scan(null, count);
+        if (validLength < channel.size()) {
+            AsyncLog.info("Journal: discarding " + (channel.size() - validLength) + " bytes of torn tail");
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        channel.position(validLength);
+        recordsSinceSnapshot.set(count[0]);
+        recordsInFile = count[0];
+
+        writer = new Thread(this::runWriter, "attendance-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void setCommitListener(CommitListener commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    public void appendEnrollment(String studentID, String name, int fingerprintID, long timestamp) {
+        appendEnrollment(studentID, name, fingerprintID, timestamp, 0);
+    }
+
+    /*
+     * originNanos is the System.nanoTime() at which the scan reached the host;
+     * it is handed back to the CommitListener once the record is durable.
+     */
+    public void appendEnrollment(String studentID, String name, int fingerprintID, long timestamp, long originNanos) {
+        enqueue(new Entry(ENROLL, fingerprintID, timestamp, studentID, name, null, null, originNanos));
+    }
+
+    public void appendAttendance(int fingerprintID, long timestamp) {
+        appendAttendance(fingerprintID, timestamp, 0);
+    }
+
+    public void appendAttendance(int fingerprintID, long timestamp, long originNanos) {
+        enqueue(new Entry(ATTEND, fingerprintID, timestamp, null, null, null, null, originNanos));
+    }
+
+    public void appendRename(int fingerprintID, String name) {
+        enqueue(new Entry(RENAME, fingerprintID, System.currentTimeMillis(), null, name, null, null));
+    }
+
+    public void appendClear() {
+        enqueue(new Entry(CLEAR, 0, System.currentTimeMillis(), null, null, null, null));
+    }
+
+    public boolean needsCompaction() {
+        return !compactionPending && recordsSinceSnapshot.get() >= compactionThreshold;
+    }
+
+    /*
+     * The snapshot task must already hold a copy of the state as of this call.
+     * Because it travels through the same queue as the appends, everything
+     * queued before it is in the snapshot and everything after it stays in the
+     * truncated journal.
+     */
+    public void compact(SnapshotTask snapshot) {
+        compactionPending = true;
+        enqueue(new Entry(COMPACT, 0, 0, null, null, null, snapshot));
+    }
+
+    public void flush() {
+        if (closed) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        enqueue(new Entry(BARRIER, 0, 0, null, null, done, null));
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int replay(Listener listener) throws IOException {
+        flush();
+        int[] count = new int[1];
+        scan(listener, count);
+        return count[0];
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        enqueue(new Entry(STOP, 0, 0, null, null, done, null));
+        closed = true;
+        try {
+            done.await();
+            writer.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            AsyncLog.error("Journal: error closing", e);
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed: " + path);
+        }
+        if (entry.type > 0) {
+            recordsSinceSnapshot.incrementAndGet();
+        }
+        queue.add(entry);
+    }
+
+    private void runWriter() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            int start = 0;
+            for (int i = 0; i < batch.size() && running; i++) {
+                Entry entry = batch.get(i);
+                if (entry.type == COMPACT) {
+                    commit(batch, start, i);
+                    runCompaction(entry.snapshot);
+                    start = i + 1;
+                } else if (entry.type == STOP) {
+                    running = false;
+                }
+            }
+            commit(batch, start, batch.size());
+            batch.clear();
+        }
+    }
+
+    /*
+     * A batch is written whole or not at all: if a write or the fsync fails,
+     * the file is cut back to where the batch started, so a torn frame never
+     * sits in front of records appended later (scan() stops at the first bad
+     * frame and reopening would discard everything after it).
+     */
+    private void commit(List<Entry> batch, int from, int to) {
+        int records = 0;
+        for (int i = from; i < to; i++) {
+            if (batch.get(i).type > 0) {
+                records++;
+            }
+        }
+        long start = -1;
+        try {
+            if (failed) {
+                throw new IOException("journal is failed, see above");
+            }
+            start = channel.position();
+            writeBuffer.clear();
+            for (int i = from; i < to; i++) {
+                Entry entry = batch.get(i);
+                if (entry.type > 0) {
+                    if (writeBuffer.remaining() < MAX_RECORD_SIZE) {
+                        drain();
+                    }
+                    encode(entry);
+                }
+            }
+            drain();
+            if (records > 0) {
+                channel.force(false);
+                recordsInFile += records;
+                notifyCommitted(batch, from, to);
+            }
+        } catch (IOException e) {
+            recordsSinceSnapshot.addAndGet(-records);
+            if (records > 0) {
+                AsyncLog.info("Journal: write failed, " + records + " records not saved: " + e.getMessage());
+            }
+            rollBack(start);
+        } finally {
+            for (int i = from; i < to; i++) {
+                CountDownLatch done = batch.get(i).done;
+                if (done != null) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+    private void rollBack(long start) {
+        if (start < 0) {
+            return;
+        }
+        try {
+            channel.truncate(start);
+            channel.position(start);
+            channel.force(true);
+        } catch (IOException e) {
+            // Appending after a torn frame would lose every later record.
+            AsyncLog.info("Journal: cannot roll back to " + start + ", no further writes: " + e.getMessage());
+            failed = true;
+        }
+    }
+
+    private void notifyCommitted(List<Entry> batch, int from, int to) {
+        CommitListener listener = commitListener;
+        if (listener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = from; i < to; i++) {
+            Entry entry = batch.get(i);
+            if (entry.type > 0) {
+                listener.committed(entry.enqueuedNanos, entry.originNanos, now);
+            }
+        }
+    }
+
+    private void runCompaction(SnapshotTask snapshot) {
+        try {
+            snapshot.write();
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            failed = false;
+            // Records queued behind the marker are still to come.
+            recordsSinceSnapshot.addAndGet(-recordsInFile);
+            recordsInFile = 0;
+            AsyncLog.info("Journal compacted into snapshot.");
+        } catch (IOException e) {
+            AsyncLog.error("Journal: compaction failed", e);
+        } finally {
+            compactionPending = false;
+        }
+    }
+
+    private void encode(Entry entry) {
+        int frameStart = writeBuffer.position();
+        writeBuffer.position(frameStart + FRAME_HEADER);
+        int payloadStart = writeBuffer.position();
+
+        writeBuffer.put(entry.type);
+        writeBuffer.putInt(entry.fingerprintID);
+        writeBuffer.putLong(entry.timestamp);
+        if (entry.type == ENROLL) {
+            putString(entry.studentID);
+            putString(entry.name);
+        } else if (entry.type == RENAME) {
+            putString(entry.name);
+        }
+
+        int payloadEnd = writeBuffer.position();
+        int length = payloadEnd - payloadStart;
+        crc.reset();
+        writeBuffer.position(payloadStart);
+        ByteBuffer payload = writeBuffer.slice();
+        payload.limit(length);
+        crc.update(payload);
+        writeBuffer.putInt(frameStart, length);
+        writeBuffer.putInt(frameStart + 4, (int) crc.getValue());
+        writeBuffer.position(payloadEnd);
+    }
+
+    /*
+     * AttendanceService rejects names and IDs that would not fit; anything
+     * else is cut on a code point, never inside a UTF-8 sequence.
+     */
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_RECORD_SIZE / 4);
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        writeBuffer.putShort((short) length);
+        writeBuffer.put(bytes, 0, length);
+    }
+
+    private void drain() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    private long scan(Listener listener, int[] count) throws IOException {
+        long size = Files.size(path);
+        if (size == 0) {
+            return 0;
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (data.hasRemaining() && reader.read(data) > 0) {
+            }
+        }
+        data.flip();
+
+        CRC32 check = new CRC32();
+        long valid = 0;
+        while (data.remaining() >= FRAME_HEADER) {
+            int length = data.getInt();
+            int expected = data.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || data.remaining() < length) {
+                break;
+            }
+            ByteBuffer payload = data.slice();
+            payload.limit(length);
+            check.reset();
+            check.update(payload.duplicate());
+            if ((int) check.getValue() != expected) {
+                break;
+            }
+            if (listener != null) {
+                dispatch(payload, listener);
+            }
+            data.position(data.position() + length);
+            valid = data.position();
+            count[0]++;
+        }
+        return valid;
+    }
+
+    private static void dispatch(ByteBuffer payload, Listener listener) {
+        byte type = payload.get();
+        int fingerprintID = payload.getInt();
+        long timestamp = payload.getLong();
+        switch (type) {
+            case ENROLL:
+                String studentID = getString(payload);
+                String name = getString(payload);
+                listener.enrolled(studentID, name, fingerprintID, timestamp);
+                break;
+            case ATTEND:
+                listener.attended(fingerprintID, timestamp);
+                break;
+            case CLEAR:
+                listener.cleared();
+                break;
+            case RENAME:
+                listener.renamed(fingerprintID, getString(payload));
+                break;
+            default:
+                AsyncLog.info("Journal: unknown record type " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,347 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.JTableHeader;
+import java.awt.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The Reports tab: attendance rate, late arrivals and absence streaks per
+ * student, present/late counts per school day, and when students first scan.
+ * Everything comes from AttendanceAnalytics' cached aggregates, so a refresh
+ * costs a copy of the roster rather than a pass over the history. The panel
+ * polls the aggregates' version while it is showing and redraws only when it
+ * has moved, and then each table is refilled in one pass with a single
+ * change event, as StudentTableModel.load does.
+ */
+public class AttendanceReportsPanel extends JPanel {
+    private static final long serialVersionUID = -2647051652447253892L;
+    private static final int REFRESH_MS = 1000;
+
+    private static final String[] STUDENT_COLUMNS = {"Student ID", "Name", "Attendance %", "Days Present",
+        "Late Days", "Avg First Scan", "Absent Streak", "Longest Streak"};
+    private static final Class<?>[] STUDENT_CLASSES = {String.class, String.class, Double.class, Integer.class,
+        Integer.class, String.class, Integer.class, Integer.class};
+    private static final String[] DAY_COLUMNS = {"Day", "Present", "Late", "Attendance %"};
+    private static final Class<?>[] DAY_CLASSES = {String.class, Integer.class, Integer.class, Double.class};
+
+    /*
+     * One row per roster entry, read straight from the records and their
+     * stats.
+     */
+    private static final class StudentStatsModel extends AbstractTableModel {
+        private static final long serialVersionUID = -4266111047561214368L;
+
+        private List<StudentRecord> records = new ArrayList<>();
+        private List<AttendanceAnalytics.StudentStats> stats = new ArrayList<>();
+
+        void load(List<StudentRecord> records, List<AttendanceAnalytics.StudentStats> stats) {
+            this.records = records;
+            this.stats = stats;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return records.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return STUDENT_COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return STUDENT_COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return STUDENT_CLASSES[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            StudentRecord record = records.get(row);
+            AttendanceAnalytics.StudentStats student = stats.get(row);
+            switch (column) {
+                case 0: return record.studentID;
+                case 1: return record.name;
+                case 2: return round(student.attendanceRate());
+                case 3: return student.daysPresent;
+                case 4: return student.lateDays;
+                case 5: return timeOfDay(student.averageFirstScan);
+                case 6: return student.currentAbsenceStreak;
+                case 7: return student.longestAbsenceStreak;
+                default: throw new IndexOutOfBoundsException("column " + column);
+            }
+        }
+    }
+
+    /*
+     * One row per school day, newest first.
+     */
+    private static final class DayCountsModel extends AbstractTableModel {
+        private static final long serialVersionUID = 3348234456405070630L;
+
+        private List<LocalDate> days = new ArrayList<>();
+        private List<int[]> counts = new ArrayList<>();
+        private int rosterSize;
+
+        void load(List<LocalDate> days, List<int[]> counts, int rosterSize) {
+            this.days = days;
+            this.counts = counts;
+            this.rosterSize = rosterSize;
+            fireTableDataChanged();
+        }
+
+        LocalDate dayAt(int row) {
+            return days.get(days.size() - 1 - row);
+        }
+
+        @Override
+        public int getRowCount() {
+            return days.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return DAY_COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return DAY_COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return DAY_CLASSES[column];
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            int[] count = counts.get(days.size() - 1 - row);
+            switch (column) {
+                case 0: return dayAt(row).toString();
+                case 1: return count[0];
+                case 2: return count[1];
+                case 3: return round(rosterSize == 0 ? 0 : count[0] * 100.0 / rosterSize);
+                default: throw new IndexOutOfBoundsException("column " + column);
+            }
+        }
+    }
+
+    private final AttendanceService service;
+    private final StudentStatsModel studentModel = new StudentStatsModel();
+    private final DayCountsModel dayModel = new DayCountsModel();
+    private final JTable dayTable = new JTable(dayModel);
+    private final HistogramPanel histogram = new HistogramPanel();
+    private final JLabel summaryLabel = new JLabel(" ");
+    private List<LocalDate> days = new ArrayList<>();
+    private long shownVersion = -1;
+
+    public AttendanceReportsPanel(AttendanceService service) {
+        super(new BorderLayout(10, 10));
+        this.service = service;
+        setBackground(AttendanceGUI.BACKGROUND_COLOR);
+
+        summaryLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        summaryLabel.setForeground(AttendanceGUI.TEXT_PRIMARY);
+
+        JTable studentTable = new JTable(studentModel);
+        studentTable.setAutoCreateRowSorter(true);
+        styleTable(studentTable);
+        dayTable.setAutoCreateRowSorter(true);
+        dayTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        dayTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                showHistogram();
+            }
+        });
+        styleTable(dayTable);
+
+        JPanel dayPanel = new JPanel(new GridLayout(2, 1, 0, 10));
+        dayPanel.setBackground(AttendanceGUI.BACKGROUND_COLOR);
+        dayPanel.setPreferredSize(new Dimension(380, 0));
+        dayPanel.add(card("School Days", new JScrollPane(dayTable)));
+        dayPanel.add(card("First Scans", histogram));
+
+        add(summaryLabel, BorderLayout.NORTH);
+        add(card("Students", new JScrollPane(studentTable)), BorderLayout.CENTER);
+        add(dayPanel, BorderLayout.EAST);
+
+        new Timer(REFRESH_MS, e -> {
+            if (isShowing()) {
+                refresh(false);
+            }
+        }).start();
+    }
+
+    /*
+     * Reloads the tables if the aggregates changed since the last refresh, or
+     * regardless when forced (the roster itself may have changed).
+     */
+    public void refresh(boolean force) {
+        AttendanceAnalytics analytics = service.getAnalytics();
+        if (analytics == null) {
+            summaryLabel.setText("Reports need the attendance history, which could not be opened.");
+            return;
+        }
+        long version = analytics.getVersion();
+        if (!force && version == shownVersion) {
+            return;
+        }
+        shownVersion = version;
+
+        List<StudentRecord> records = service.students();
+        List<Integer> fingerprintIDs = new ArrayList<>(records.size());
+        for (StudentRecord record : records) {
+            fingerprintIDs.add(record.fingerprintID);
+        }
+        List<AttendanceAnalytics.StudentStats> stats = analytics.students(fingerprintIDs);
+        double rateSum = 0;
+        for (AttendanceAnalytics.StudentStats student : stats) {
+            rateSum += student.attendanceRate();
+        }
+        studentModel.load(records, stats);
+
+        LocalDate selected = selectedDay();
+        days = analytics.days();
+        dayModel.load(days, analytics.dailyCounts(), records.size());
+        int row = selected == null ? -1 : days.size() - 1 - days.indexOf(selected);
+        if (row >= 0 && row < days.size()) {
+            row = dayTable.convertRowIndexToView(row);
+            dayTable.setRowSelectionInterval(row, row);
+        }
+        showHistogram();
+
+        String average = records.isEmpty() ? "-" : round(rateSum / records.size()) + "%";
+        summaryLabel.setText("School days: " + days.size() + " | Average attendance: " + average
+            + " | Late after " + timeOfDay(analytics.getLateAfterSeconds()));
+    }
+
+    private void showHistogram() {
+        AttendanceAnalytics analytics = service.getAnalytics();
+        if (analytics == null) {
+            return;
+        }
+        LocalDate day = selectedDay();
+        if (day == null) {
+            histogram.show("All school days", analytics.firstScanHistogram());
+        } else {
+            histogram.show(day.toString(), analytics.firstScanHistogram(day));
+        }
+    }
+
+    private LocalDate selectedDay() {
+        int row = dayTable.getSelectedRow();
+        if (row < 0) {
+            return null;
+        }
+        return dayModel.dayAt(dayTable.convertRowIndexToModel(row));
+    }
+
+    private static double round(double percent) {
+        return Math.round(percent * 10) / 10.0;
+    }
+
+    private static String timeOfDay(int seconds) {
+        return seconds < 0 ? "-" : LocalTime.ofSecondOfDay(seconds).withSecond(0).toString();
+    }
+
+    private static void styleTable(JTable table) {
+        table.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        table.setRowHeight(28);
+        table.setShowGrid(false);
+        table.setBackground(AttendanceGUI.CARD_COLOR);
+        table.setSelectionForeground(AttendanceGUI.TEXT_PRIMARY);
+        table.setSelectionBackground(new Color(52, 152, 219, 50));
+        JTableHeader header = table.getTableHeader();
+        header.setFont(new Font("Segoe UI", Font.BOLD, 13));
+        header.setBackground(AttendanceGUI.TABLE_HEADER_COLOR);
+        header.setForeground(Color.WHITE);
+    }
+
+    private static JPanel card(String title, JComponent content) {
+        JPanel card = new JPanel(new BorderLayout(5, 5));
+        card.setBackground(AttendanceGUI.CARD_COLOR);
+        card.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(new Color(189, 195, 199), 1),
+            BorderFactory.createEmptyBorder(10, 10, 10, 10)
+        ));
+        JLabel titleLabel = new JLabel(title);
+        titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        titleLabel.setForeground(AttendanceGUI.HEADER_COLOR);
+        card.add(titleLabel, BorderLayout.NORTH);
+        card.add(content, BorderLayout.CENTER);
+        return card;
+    }
+
+    /*
+     * Bars of first scans per AttendanceAnalytics.BUCKET_MINUTES, trimmed to
+     * the buckets between the earliest and latest arrival.
+     */
+    private static final class HistogramPanel extends JComponent {
+        private static final long serialVersionUID = 8276505377845144752L;
+
+        private String caption = "";
+        private int[] buckets = new int[AttendanceAnalytics.BUCKETS];
+
+        void show(String caption, int[] buckets) {
+            this.caption = caption;
+            this.buckets = buckets;
+            repaint();
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Graphics2D g2 = (Graphics2D) g;
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+            g2.setColor(AttendanceGUI.TEXT_SECONDARY);
+            FontMetrics metrics = g2.getFontMetrics();
+            g2.drawString(caption, 0, metrics.getAscent());
+
+            int first = 0;
+            int last = buckets.length - 1;
+            while (first < last && buckets[first] == 0) {
+                first++;
+            }
+            while (last > first && buckets[last] == 0) {
+                last--;
+            }
+            int max = 0;
+            for (int i = first; i <= last; i++) {
+                max = Math.max(max, buckets[i]);
+            }
+            if (max == 0) {
+                g2.drawString("No scans", 0, metrics.getHeight() * 2);
+                return;
+            }
+
+            int top = metrics.getHeight() + 4;
+            int bottom = getHeight() - metrics.getHeight() - 2;
+            int count = last - first + 1;
+            double width = getWidth() / (double) count;
+            for (int i = 0; i < count; i++) {
+                int height = (int) ((bottom - top) * (long) buckets[first + i] / max);
+                int x = (int) (i * width);
+                g2.setColor(AttendanceGUI.PRIMARY_COLOR);
+                g2.fillRect(x + 1, bottom - height, Math.max(1, (int) width - 2), height);
+            }
+            g2.setColor(AttendanceGUI.TEXT_SECONDARY);
+            g2.drawString(bucketTime(first), 0, getHeight() - metrics.getDescent());
+            String end = bucketTime(last + 1);
+            g2.drawString(end, getWidth() - metrics.stringWidth(end), getHeight() - metrics.getDescent());
+        }
+
+        private static String bucketTime(int bucket) {
+            int minutes = bucket * AttendanceAnalytics.BUCKET_MINUTES;
+            return String.format("%02d:%02d", minutes / 60 % 24, minutes % 60);
+        }
+    }
+}
@@ -0,0 +1,1011 @@
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The scanner station without its window: roster, journal, snapshots,
+ * attendance history, scanner sessions and the scan pipeline. The Swing UI
+ * and the HTTP API are both clients of it. Listener callbacks arrive on the
+ * service's own threads (session readers and the scan worker), never on the
+ * EDT, so a Swing client hands them over with invokeLater.
+ *
+ * Every change to the roster goes registry first, journal second, under the
+ * service's lock, so concurrent clients cannot interleave the two halves.
+ */
+public class AttendanceService implements Closeable {
+
+    public interface Listener {
+        default void statusChanged(String message) {
+        }
+
+        default void connectionChanged(String message, boolean connected) {
+        }
+
+        default void errorOccurred(String title, String message) {
+        }
+
+        /*
+         * A scanner's scan moved on; see ScanStateMachine. Called on the
+         * state machine's thread.
+         */
+        default void scanStateChanged(ScannerSession session, ScanStateMachine.State state, String message) {
+        }
+
+        default void scanRecorded(ScannerSession session, StudentRecord record, boolean enrolled, long postedNanos) {
+        }
+
+        default void studentUpdated(StudentRecord record) {
+        }
+
+        default void dataReloaded() {
+        }
+    }
+
+    private static final String DATA_FILE = "students.dat";
+    private static final String LEGACY_DATA_FILE = "students.dat.legacy";
+    private static final int SNAPSHOT_GENERATIONS = 3;
+    private static final String JOURNAL_FILE = "students.journal";
+    private static final int JOURNAL_COMPACTION_THRESHOLD = 500;
+    private static final String HISTORY_DIRECTORY = "history";
+    private static final String METRICS_FILE = "scan-metrics.properties";
+    private static final long METRICS_REPORT_PERIOD_SECONDS = 60;
+    private static final int SCAN_QUEUE_CAPACITY = 256;
+    private static final long SCAN_OFFER_TIMEOUT_MS = 50;
+    // Override with -Dattendance.debounce.millis=<n>; 0 disables de-duplication.
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 60_000;
+    // Override with -Dattendance.serial.baud=<n>; 0 keeps scanners on the text protocol.
+    private static final int DEFAULT_BINARY_BAUD_RATE = 115_200;
+    private static final int BINARY_BAUD_RATE = Integer.getInteger("attendance.serial.baud", DEFAULT_BINARY_BAUD_RATE);
+    // Override with -Dattendance.sessions=daily or class period starts, e.g. 08:00,10:00,13:30.
+    private static final String SESSIONS_PROPERTY = "attendance.sessions";
+    private static final String SESSIONS_DIRECTORY = "sessions";
+    private static final int PRESENCE_MAGIC = 0x50524553;
+    // Override with -Dattendance.late.time=HH:mm; a first scan after it counts as late.
+    private static final String LATE_TIME_PROPERTY = "attendance.late.time";
+    private static final LocalTime DEFAULT_LATE_TIME = LocalTime.of(8, 15);
+
+    private final StudentRegistry registry = new StudentRegistry();
+    private final Path directory;
+    private final SnapshotStore snapshotStore;
+    private final ScanMetrics metrics = new ScanMetrics();
+    private final ScanDebouncer debouncer = new ScanDebouncer(
+        Long.getLong("attendance.debounce.millis", DEFAULT_DEBOUNCE_MILLIS), 1024);
+    private final SensorProtocolDecoder sensorDecoder = new SensorProtocolDecoder();
+    private final TemplateSlotAllocator slotAllocator = new TemplateSlotAllocator();
+    private final SessionSchedule schedule = loadSchedule();
+    private final ScanStateMachine scanStates = new ScanStateMachine(this::fireScanState);
+    private final ScheduledExecutorService rolloverTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-rollover");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile SessionSchedule.Session currentSession = schedule.sessionAt(System.currentTimeMillis());
+    private final List<ScannerSession> sessions = new CopyOnWriteArrayList<>();
+    private final ScannerSupervisor scannerSupervisor = new ScannerSupervisor(sensorDecoder, new ScannerSupervisor.Listener() {
+        @Override
+        public void sessionOpened(ScannerSession session) {
+            scannerConnected(session);
+        }
+
+        @Override
+        public void sessionLost(ScannerSession session) {
+            scannerLost(session);
+        }
+
+        @Override
+        public void statusChanged(String message) {
+            fireStatus(message);
+        }
+    });
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private AttendanceJournal journal;
+    private AttendanceHistory history;
+    private volatile AttendanceAnalytics analytics;
+    private ScanPipeline scanPipeline;
+    // Lines overflowed and frames corrupted on sessions since lost; the
+    // open ones are asked.
+    private final LongAdder lostSessionOverflowedLines = new LongAdder();
+    private final LongAdder lostSessionCorruptFrames = new LongAdder();
+    // Bumped by clearAll() under the service lock and the history's.
+    private volatile long historyGeneration;
+
+    /*
+     * Keeps its files in the working directory.
+     */
+    public AttendanceService() {
+        this(Paths.get(""));
+    }
+
+    public AttendanceService(Path directory) {
+        this.directory = directory;
+        this.snapshotStore = new SnapshotStore(directory.resolve(DATA_FILE), SNAPSHOT_GENERATIONS);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /*
+     * Opens storage, loads the roster and starts the scan worker. Listeners
+     * added before this see any problems opening storage.
+     */
+    public void start() throws IOException {
+        try {
+            journal = new AttendanceJournal(directory.resolve(JOURNAL_FILE), JOURNAL_COMPACTION_THRESHOLD);
+        } catch (IOException e) {
+            AsyncLog.error("Cannot open the journal", e);
+            fireError("Load Error", "Error opening attendance journal: " + e.getMessage());
+        }
+        try {
+            history = new AttendanceHistory(directory.resolve(HISTORY_DIRECTORY));
+        } catch (IOException e) {
+            AsyncLog.error("Cannot open the attendance history", e);
+            fireError("Load Error", "Error opening attendance history: " + e.getMessage());
+        }
+        if (history != null) {
+            analytics = new AttendanceAnalytics(history, loadLateTime());
+            analytics.rebuildInBackground();
+        }
+
+        reload();
+
+        if (journal != null) {
+            journal.setCommitListener(metrics);
+        }
+        metrics.setUnknownLineCounter(() -> sensorDecoder.getCount(SensorEvent.UNKNOWN));
+        metrics.setOverflowedLineCounter(() -> {
+            long lines = lostSessionOverflowedLines.sum();
+            for (ScannerSession session : sessions) {
+                lines += session.getTransport().getOverflowedLines();
+            }
+            return lines;
+        });
+        metrics.setCorruptFrameCounter(() -> {
+            long frames = lostSessionCorruptFrames.sum();
+            for (ScannerSession session : sessions) {
+                frames += session.getCorruptFrames();
+            }
+            return frames;
+        });
+        metrics.registerMBean();
+        metrics.startReporting(directory.resolve(METRICS_FILE), METRICS_REPORT_PERIOD_SECONDS);
+
+        scanPipeline = new ScanPipeline(SCAN_QUEUE_CAPACITY, SCAN_OFFER_TIMEOUT_MS, this::recordScan);
+        metrics.setQueueDepthGauge(scanPipeline::getQueueDepth);
+        registerSensorHandlers();
+        scheduleRollover();
+    }
+
+    /*
+     * Re-reads the newest valid snapshot and replays the journal over it.
+     */
+    public synchronized void reload() throws IOException {
+        List<StudentRecord> loaded;
+        Path dataFile = snapshotStore.getFile();
+        Path legacyFile = dataFile.resolveSibling(LEGACY_DATA_FILE);
+        if (LegacyStudentFile.isLegacy(dataFile)) {
+            Files.move(dataFile, legacyFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        loaded = snapshotStore.load();
+        if (loaded == null && Files.exists(legacyFile)) {
+            loaded = migrateLegacySnapshot(legacyFile);
+        }
+        if (loaded == null) {
+            AsyncLog.info("No saved data found. Starting fresh.");
+            loaded = new ArrayList<>();
+        }
+        registry.load(loaded);
+
+        if (journal != null) {
+            try {
+                int replayed = journal.replay(registry);
+                AsyncLog.info("Replayed " + replayed + " journal entries.");
+            } catch (IOException e) {
+                AsyncLog.error("Journal replay failed", e);
+                fireError("Load Error", "Error replaying journal: " + e.getMessage());
+            }
+        }
+
+        registry.retainPresence(currentSession);
+
+        AsyncLog.info("Loaded " + registry.size() + " students from storage.");
+        for (Listener listener : listeners) {
+            listener.dataReloaded();
+        }
+    }
+
+    /*
+     * Waits until every change recorded so far is durable.
+     */
+    public void flush() {
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+
+    public List<StudentRecord> students() {
+        return registry.snapshot();
+    }
+
+    public StudentRecord findByFingerprint(int fingerprintID) {
+        return registry.findByFingerprint(fingerprintID);
+    }
+
+    public StudentRecord findByStudentID(String studentID) {
+        return registry.findByStudentID(studentID);
+    }
+
+    public SessionSchedule.Session getCurrentSession() {
+        return currentSession;
+    }
+
+    public int studentCount() {
+        return registry.size();
+    }
+
+    public int presentCount() {
+        return registry.presentCount();
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    public List<ScannerSession> getSessions() {
+        return Collections.unmodifiableList(sessions);
+    }
+
+    /*
+     * Null if the history could not be opened.
+     */
+    public AttendanceAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    public TemplateSlotAllocator getSlotAllocator() {
+        return slotAllocator;
+    }
+
+    public static boolean isPendingName(StudentRecord record) {
+        return record.name.equals(defaultStudentName(record.fingerprintID));
+    }
+
+    /*
+     * Registers (or re-registers) a student against a fingerprint template
+     * already stored on the sensor. An existing record keeps its attendance.
+     * Throws IllegalArgumentException, before anything is journaled, if the
+     * student ID is already enrolled with another fingerprint or the ID or
+     * name is one RosterImporter would reject.
+     */
+    public synchronized StudentRecord enroll(String studentID, String name, int fingerprintID) {
+        String problem = RosterImporter.validate(studentID, name);
+        if (problem != null) {
+            throw new IllegalArgumentException(problem);
+        }
+        StudentRecord existing = registry.findByFingerprint(fingerprintID);
+        String status = existing == null ? StudentRecord.ABSENT : existing.status;
+        long lastScan = existing == null ? 0 : existing.lastScan;
+        StudentRecord record = registry.enroll(studentID, name, fingerprintID, status, lastScan);
+        if (journal != null) {
+            journal.appendEnrollment(studentID, name, fingerprintID, lastScan);
+        }
+        commitToJournal();
+        for (Listener listener : listeners) {
+            listener.studentUpdated(record);
+        }
+        return record;
+    }
+
+    /*
+     * Throws IllegalArgumentException for a name RosterImporter would reject.
+     */
+    public synchronized StudentRecord rename(int fingerprintID, String name) {
+        String problem = RosterImporter.validateName(name);
+        if (problem != null) {
+            throw new IllegalArgumentException(problem);
+        }
+        StudentRecord record = registry.rename(fingerprintID, name);
+        if (record == null) {
+            return null;
+        }
+        if (journal != null) {
+            journal.appendRename(fingerprintID, name);
+        }
+        commitToJournal();
+        for (Listener listener : listeners) {
+            listener.studentUpdated(record);
+        }
+        return record;
+    }
+
+    /*
+     * Forgets every student, the attendance history and the templates on
+     * every connected sensor.
+     */
+    public synchronized void clearAll() {
+        registry.clear();
+        debouncer.clear();
+
+        if (history != null) {
+            synchronized (history) {
+                historyGeneration++;
+                try {
+                    history.clear();
+                } catch (IOException e) {
+                    AsyncLog.error("Error clearing attendance history", e);
+                    fireError("Clear Error", "Error clearing attendance history: " + e.getMessage());
+                }
+                analytics.clear();
+            }
+        }
+
+        if (journal != null) {
+            journal.appendClear();
+            List<StudentRecord> records = registry.snapshot();
+            journal.compact(() -> writeSnapshot(records));
+        } else {
+            saveStudentData();
+        }
+
+        for (Listener listener : listeners) {
+            listener.dataReloaded();
+        }
+        fireStatus("All local data cleared; clearing fingerprint data on sensors...");
+
+        // Sensors answer between scans; don't hold the roster lock waiting.
+        for (ScannerSession session : sessions) {
+            if (!session.isOpen()) {
+                continue;
+            }
+            String portName = session.getPortName();
+            session.getCommands().clear().whenComplete((ignored, failure) -> {
+                if (failure != null) {
+                    fireError("Serial Error", "Failed to clear fingerprints on " + portName + ": "
+                        + SensorCommandChannel.describe(failure));
+                } else {
+                    if (session.hostManagedSlots) {
+                        slotAllocator.reset(session.sensorNumber);
+                        provisionSlot(session);
+                    }
+                    fireStatus("Fingerprint templates cleared on " + portName);
+                }
+            });
+        }
+    }
+
+    /*
+     * Deletes one template from the sensor that holds it and frees its slot
+     * for the next enrollment there. Returns null if that sensor is not
+     * connected.
+     */
+    public CompletableFuture<Void> deleteTemplate(int fingerprintID) {
+        int sensor = TemplateSlotAllocator.sensorOf(fingerprintID);
+        int slot = TemplateSlotAllocator.slotOf(fingerprintID);
+        for (ScannerSession session : sessions) {
+            if (session.isOpen() && session.sensorNumber == sensor) {
+                return session.getCommands().deleteTemplate(slot).thenRun(() -> {
+                    if (session.hostManagedSlots) {
+                        slotAllocator.release(sensor, slot);
+                        provisionSlot(session);
+                    }
+                });
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Applies a parsed roster file in one batch: a row whose fingerprint ID
+     * is on the roster updates that student (keeping their attendance) if
+     * the student IDs match or the record is still an unnamed enrollment, a
+     * row without one updates the student with that student ID or, for a
+     * new student, claims the lowest free template slot on a connected
+     * sensor. The registry is updated under one lock, the listeners see a
+     * single dataReloaded and the result goes to disk as one snapshot.
+     * Rows that cannot be applied are added to the result's errors.
+     */
+    public synchronized RosterImporter.Result importRoster(RosterImporter.Result parsed) {
+        List<StudentRecord> batch = new ArrayList<>(parsed.rows.size());
+        List<ScannerSession> managed = new ArrayList<>();
+        for (ScannerSession session : sessions) {
+            if (session.hostManagedSlots) {
+                managed.add(session);
+            }
+        }
+        managed.sort((a, b) -> Integer.compare(a.sensorNumber, b.sensorNumber));
+        int nextSensor = 0;
+
+        for (RosterImporter.Row row : parsed.rows) {
+            StudentRecord byStudentID = registry.findByStudentID(row.studentID);
+            int fingerprintID = row.fingerprintID;
+            if (fingerprintID == RosterImporter.NO_FINGERPRINT && byStudentID != null) {
+                fingerprintID = byStudentID.fingerprintID;
+            } else if (byStudentID != null && byStudentID.fingerprintID != fingerprintID) {
+                parsed.error(row.line, "student ID " + row.studentID + " is already enrolled with fingerprint ID "
+                    + byStudentID.fingerprintID);
+                continue;
+            }
+            StudentRecord byFingerprint = fingerprintID == RosterImporter.NO_FINGERPRINT
+                ? null : registry.findByFingerprint(fingerprintID);
+            if (byFingerprint != null && !byFingerprint.studentID.equals(row.studentID) && !isPendingName(byFingerprint)) {
+                parsed.error(row.line, "fingerprint ID " + fingerprintID + " is enrolled to " + byFingerprint.studentID);
+                continue;
+            }
+            if (fingerprintID == RosterImporter.NO_FINGERPRINT) {
+                int slot = TemplateSlotAllocator.NO_SLOT;
+                while (nextSensor < managed.size()
+                        && (slot = slotAllocator.claimFree(managed.get(nextSensor).sensorNumber)) == TemplateSlotAllocator.NO_SLOT) {
+                    nextSensor++;
+                }
+                if (slot == TemplateSlotAllocator.NO_SLOT) {
+                    parsed.error(row.line, "no free template slot on a connected sensor");
+                    continue;
+                }
+                fingerprintID = TemplateSlotAllocator.globalID(managed.get(nextSensor).sensorNumber, slot);
+            } else {
+                slotAllocator.claim(TemplateSlotAllocator.sensorOf(fingerprintID), TemplateSlotAllocator.slotOf(fingerprintID));
+            }
+            StudentRecord existing = registry.findByFingerprint(fingerprintID);
+            if (existing == null) {
+                batch.add(new StudentRecord(-1, row.studentID, row.name, fingerprintID, StudentRecord.ABSENT, 0));
+                parsed.added++;
+            } else {
+                batch.add(new StudentRecord(-1, row.studentID, row.name, fingerprintID, existing.status, existing.lastScan));
+                parsed.updated++;
+            }
+        }
+        if (batch.isEmpty()) {
+            return parsed;
+        }
+
+        registry.enrollAll(batch);
+        List<StudentRecord> records = registry.snapshot();
+        if (journal != null) {
+            journal.compact(() -> writeSnapshot(records));
+        } else {
+            saveStudentData();
+        }
+        for (Listener listener : listeners) {
+            listener.dataReloaded();
+        }
+        fireStatus("Imported " + parsed.added + " new and " + parsed.updated + " updated students"
+            + (parsed.errors.isEmpty() ? "" : "; " + parsed.errors.size() + " rows rejected"));
+        for (ScannerSession session : managed) {
+            provisionSlot(session);
+        }
+        return parsed;
+    }
+
+    public List<LocalDate> historyDays() throws IOException {
+        return history == null ? new ArrayList<>() : history.days();
+    }
+
+    /*
+     * The roster as it stood on one day: present with that day's last scan
+     * time if the student scanned that day, absent otherwise.
+     */
+    public List<StudentRecord> attendanceOn(LocalDate day) throws IOException {
+        List<StudentRecord> roster = registry.snapshot();
+        long dayStartSeconds = Timestamps.startOfDay(day) / 1000;
+        IntIntHashMap lastScanOfDay = new IntIntHashMap(roster.size(), -1);
+        if (history != null) {
+            history.forEach(day, day, (fingerprintID, epochSeconds, scannerID) ->
+                lastScanOfDay.put(fingerprintID, (int) (epochSeconds - dayStartSeconds)));
+        }
+        for (StudentRecord record : roster) {
+            int secondsIntoDay = lastScanOfDay.get(record.fingerprintID);
+            record.status = secondsIntoDay < 0 ? StudentRecord.ABSENT : StudentRecord.PRESENT;
+            record.lastScan = secondsIntoDay < 0 ? 0 : (dayStartSeconds + secondsIntoDay) * 1000;
+        }
+        return roster;
+    }
+
+    /*
+     * Connects to the scanners on the given ports, or to every scanner that
+     * can be found if the list is empty, and keeps them connected. Returns at
+     * once; connections are reported through the listeners.
+     */
+    public void startScanners(List<String> portNames) {
+        scannerSupervisor.start(portNames);
+    }
+
+    @Override
+    public void close() {
+        rolloverTimer.shutdownNow();
+        scannerSupervisor.close();
+        scanStates.close();
+        if (scanPipeline != null) {
+            scanPipeline.close();
+        }
+        if (history != null) {
+            history.close();
+        }
+        if (journal != null) {
+            journal.close();
+        } else {
+            saveStudentData();
+        }
+        snapshotStore.close();
+        metrics.stopReporting();
+        try {
+            metrics.writeReport(directory.resolve(METRICS_FILE));
+        } catch (IOException e) {
+            AsyncLog.error("Error writing the final metrics report", e);
+        }
+    }
+
+    static String defaultStudentID(int fingerprintID) {
+        return "STU" + String.format("%04d", fingerprintID);
+    }
+
+    /*
+     * The default ID, or a numbered variant if someone enrolled by hand under
+     * that ID already.
+     */
+    private String unusedStudentID(int fingerprintID) {
+        String studentID = defaultStudentID(fingerprintID);
+        for (int n = 2; registry.findByStudentID(studentID) != null; n++) {
+            studentID = defaultStudentID(fingerprintID) + "-" + n;
+        }
+        return studentID;
+    }
+
+    private static SessionSchedule loadSchedule() {
+        String spec = System.getProperty(SESSIONS_PROPERTY, SessionSchedule.DAILY);
+        try {
+            return SessionSchedule.parse(spec);
+        } catch (IllegalArgumentException e) {
+            AsyncLog.info("Ignoring -D" + SESSIONS_PROPERTY + "=" + spec + ": " + e.getMessage());
+            return SessionSchedule.parse(SessionSchedule.DAILY);
+        }
+    }
+
+    private static LocalTime loadLateTime() {
+        String time = System.getProperty(LATE_TIME_PROPERTY);
+        if (time == null) {
+            return DEFAULT_LATE_TIME;
+        }
+        try {
+            return LocalTime.parse(time.trim());
+        } catch (DateTimeParseException e) {
+            AsyncLog.info("Ignoring -D" + LATE_TIME_PROPERTY + "=" + time + ": expected HH:mm");
+            return DEFAULT_LATE_TIME;
+        }
+    }
+
+    private void scheduleRollover() {
+        long delay = Math.max(0, currentSession.end - System.currentTimeMillis());
+        rolloverTimer.schedule(this::rolloverIfDue, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * The timer runs on System.nanoTime(), so it may fire a little before the
+     * wall clock reaches the boundary; it then just waits again.
+     */
+    private void rolloverIfDue() {
+        try {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (!currentSession.contains(now)) {
+                    endSession(schedule.sessionAt(now));
+                }
+            }
+        } catch (Exception e) {
+            AsyncLog.error("Session rollover failed", e);
+        }
+        scheduleRollover();
+    }
+
+    /*
+     * Archives the ended session's presence bits and starts the next one with
+     * everyone absent. Only the bitset is touched; students.dat keeps the last
+     * scan times that presence is rebuilt from on the next load.
+     */
+    private synchronized void endSession(SessionSchedule.Session next) {
+        SessionSchedule.Session ended = currentSession;
+        int students = registry.size();
+        BitSet present = registry.rollover();
+        currentSession = next;
+        try {
+            archivePresence(ended, present, students);
+        } catch (IOException e) {
+            AsyncLog.error("Error archiving the ended session", e);
+        }
+        for (Listener listener : listeners) {
+            listener.dataReloaded();
+        }
+        fireStatus("Session " + next + " started; " + present.cardinality() + " of " + students
+            + " students were present in session " + ended);
+    }
+
+    /*
+     * sessions/<label>.presence: magic, roster size, word count, then the
+     * bitset's words.
+     * Bit n is the student in slot n, i.e. row n of students.dat.
+     */
+    private void archivePresence(SessionSchedule.Session session, BitSet present, int students) throws IOException {
+        Path archive = directory.resolve(SESSIONS_DIRECTORY);
+        Files.createDirectories(archive);
+        Path file = archive.resolve(session.label.replace(' ', 'T').replace(':', '-') + ".presence");
+        long[] words = present.toLongArray();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(PRESENCE_MAGIC);
+            out.writeInt(students);
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+    }
+
+    private static String defaultStudentName(int fingerprintID) {
+        return "Student " + fingerprintID;
+    }
+
+    private void writeSnapshot(List<StudentRecord> records) throws IOException {
+        snapshotStore.save(records);
+        AsyncLog.info("Data saved successfully!");
+    }
+
+    /*
+     * One-time conversion of a serialized students.dat, which has already been
+     * moved aside to students.dat.legacy. If the first binary save does not
+     * complete, no snapshot generation exists on the next start and the
+     * conversion simply runs again.
+     */
+    private List<StudentRecord> migrateLegacySnapshot(Path legacyFile) throws IOException {
+        List<StudentRecord> records = LegacyStudentFile.read(legacyFile);
+        snapshotStore.save(records);
+        AsyncLog.info("Migrated " + records.size() + " students to the binary snapshot format.");
+        return records;
+    }
+
+    private void saveStudentData() {
+        snapshotStore.saveAsync(registry.snapshot());
+    }
+
+    private void commitToJournal() {
+        if (journal == null) {
+            saveStudentData();
+        } else if (journal.needsCompaction()) {
+            List<StudentRecord> records = registry.snapshot();
+            journal.compact(() -> writeSnapshot(records));
+        }
+    }
+
+    /*
+     * The roster and journal change under the service's lock; the history
+     * and analytics are written after it is released, so a slow history write
+     * holds up only the scan worker and not every client of the service.
+     */
+    private void recordScan(ScannerSession session, int fingerprintID, long timestamp, long receivedNanos) {
+        long started = System.nanoTime();
+        metrics.record(ScanMetrics.Stage.QUEUE_WAIT, started - receivedNanos);
+        StudentRecord record;
+        boolean enrolled;
+        boolean inSession;
+        SessionSchedule.Session scanSession;
+        long generation;
+        synchronized (this) {
+            if (timestamp >= currentSession.end) {
+                // The first scan of a new session can beat the rollover timer.
+                endSession(schedule.sessionAt(timestamp));
+            }
+
+            // A replayed or clock-skewed scan from before this session only
+            // goes to the history; it must not mark anyone present now.
+            inSession = currentSession.contains(timestamp);
+            scanSession = currentSession;
+            if (inSession) {
+                record = registry.markPresent(fingerprintID, timestamp);
+            } else {
+                record = registry.findByFingerprint(fingerprintID);
+            }
+            enrolled = record == null;
+            if (enrolled) {
+                record = registry.enroll(unusedStudentID(fingerprintID), defaultStudentName(fingerprintID),
+                    fingerprintID, inSession ? StudentRecord.PRESENT : StudentRecord.ABSENT, inSession ? timestamp : 0);
+            }
+            metrics.record(ScanMetrics.Stage.LOOKUP, System.nanoTime() - started);
+
+            if (journal != null) {
+                if (enrolled) {
+                    journal.appendEnrollment(record.studentID, record.name, fingerprintID, record.lastScan, receivedNanos);
+                } else if (inSession) {
+                    journal.appendAttendance(fingerprintID, timestamp, receivedNanos);
+                }
+            }
+            commitToJournal();
+            generation = historyGeneration;
+        }
+
+        long looked = System.nanoTime();
+        if (history != null) {
+            synchronized (history) {
+                // Not if clearAll() wiped the history since the roster took the scan.
+                if (generation == historyGeneration) {
+                    try {
+                        history.record(fingerprintID, timestamp, session.getScannerID());
+                    } catch (IOException e) {
+                        AsyncLog.error("Error writing a scan to the history", e);
+                    }
+                    analytics.record(fingerprintID, timestamp);
+                }
+            }
+        }
+        long posted = System.nanoTime();
+        metrics.record(ScanMetrics.Stage.HISTORY, posted - looked);
+        metrics.scanRecorded(enrolled);
+
+        if (!inSession) {
+            String message = "Scan of Fingerprint ID " + fingerprintID + " from before session " + scanSession
+                + " kept in the history only";
+            fireStatus(message);
+            if (enrolled) {
+                for (Listener listener : listeners) {
+                    listener.studentUpdated(record);
+                }
+            }
+            scanStates.committed(session, message);
+            return;
+        }
+
+        String message = enrolled
+            ? "New student enrolled on " + session.getPortName() + ": Fingerprint ID " + fingerprintID + " - name pending"
+            : "Attendance marked for: " + record.name + " (ID: " + record.studentID + ")";
+        fireStatus(message);
+        for (Listener listener : listeners) {
+            listener.scanRecorded(session, record, enrolled, posted);
+        }
+        scanStates.committed(session, message);
+    }
+
+    private String describeSessions() {
+        StringBuilder ports = new StringBuilder();
+        for (ScannerSession session : sessions) {
+            if (ports.length() > 0) {
+                ports.append(", ");
+            }
+            ports.append(session.getPortName());
+        }
+        return ports.toString();
+    }
+
+    private void registerSensorHandlers() {
+        // The scan's progress is the state machine's; these handlers only
+        // pass the events on, plus the image-to-ID timing of the reader.
+        SensorProtocolDecoder.EventHandler toStateMachine = (session, event, value) -> scanStates.onEvent(session, event);
+        sensorDecoder.on(SensorEvent.IMAGE_TAKEN, (session, event, value) -> {
+            session.imageTakenNanos = System.nanoTime();
+            scanStates.onEvent(session, event);
+        });
+        sensorDecoder.on(SensorEvent.ENROLL_STARTED, (session, event, value) -> {
+            // Enrollment waits on the student lifting and re-placing the finger,
+            // so it is kept out of the image-to-ID latency.
+            session.imageTakenNanos = 0;
+            scanStates.onEvent(session, event);
+        });
+        sensorDecoder.on(SensorEvent.REMOVE_FINGER, toStateMachine);
+        sensorDecoder.on(SensorEvent.PLACE_AGAIN, toStateMachine);
+        sensorDecoder.on(SensorEvent.ENROLLED, toStateMachine);
+        sensorDecoder.on(SensorEvent.ENROLL_FAILED, toStateMachine);
+        sensorDecoder.on(SensorEvent.DEVICE_ERROR, toStateMachine);
+        sensorDecoder.on(SensorEvent.MATCH, toStateMachine);
+        sensorDecoder.on(SensorEvent.NEW_ID, (session, event, slot) -> {
+            long receivedNanos = System.nanoTime();
+            int fingerprintID = slot <= 0 ? slot : TemplateSlotAllocator.globalID(session.sensorNumber, slot);
+            if (slot > 0 && session.hostManagedSlots && slotAllocator.markUsed(session.sensorNumber, slot)) {
+                provisionSlot(session);
+            }
+            if (session.imageTakenNanos != 0) {
+                metrics.record(ScanMetrics.Stage.IMAGE_TO_NEW_ID, receivedNanos - session.imageTakenNanos);
+                session.imageTakenNanos = 0;
+            }
+            if (fingerprintID <= 0) {
+                metrics.scanFailed();
+                scanFailed(session, "Enrollment failed. Try again.");
+            } else if (!debouncer.accept(fingerprintID, session.getTransport().nanoTime())) {
+                metrics.scanSuppressed();
+                scanFailed(session, "Repeat scan of Fingerprint ID " + fingerprintID + " within "
+                    + debouncer.getWindowMillis() / 1000 + "s ignored");
+            } else if (!scanPipeline.submit(session, fingerprintID, session.getTransport().currentTimeMillis(), receivedNanos)) {
+                debouncer.forget(fingerprintID);
+                metrics.scanRejected();
+                scanFailed(session, "Scan queue full - dropped scan of Fingerprint ID " + fingerprintID
+                    + " from " + session.getPortName());
+            }
+        });
+        sensorDecoder.on(SensorEvent.SENSOR_READY, (session, event, value) -> {
+            fireConnection("Sensor Ready", true);
+            fireStatus("Fingerprint sensor connected and ready");
+        });
+        sensorDecoder.on(SensorEvent.SENSOR_MISSING, (session, event, value) -> {
+            fireConnection("Sensor Not Found", false);
+            fireStatus("Fingerprint sensor not found on " + session.getPortName());
+        });
+        sensorDecoder.on(SensorEvent.WAITING_FOR_FINGER, (session, event, value) -> {
+            fireStatus("System ready - Place finger on scanner");
+            scanStates.onEvent(session, event);
+        });
+    }
+
+    /*
+     * A scanner was found, first or again after a reconnect: bring it back to
+     * the state the rest of the station expects.
+     */
+    private void scannerConnected(ScannerSession session) {
+        sessions.add(session);
+        AsyncLog.info("Port " + session.getPortName() + " opened successfully!");
+        fireConnection("Connected to " + describeSessions(), true);
+        fireStatus("Connected to Arduino on " + session.getPortName());
+        CompletableFuture<Void> negotiated = BINARY_BAUD_RATE > 0
+            ? negotiateBinary(session) : CompletableFuture.completedFuture(null);
+        negotiated.thenRun(() -> attachTemplates(session));
+    }
+
+    private void scannerLost(ScannerSession session) {
+        sessions.remove(session);
+        lostSessionOverflowedLines.add(session.getTransport().getOverflowedLines());
+        lostSessionCorruptFrames.add(session.getCorruptFrames());
+        if (session.hostManagedSlots) {
+            session.hostManagedSlots = false;
+            slotAllocator.detach(session.sensorNumber);
+        }
+        scanStates.failed(session, "Lost scanner on " + session.getPortName());
+        fireConnection(sessions.isEmpty() ? "Scanner disconnected" : "Connected to " + describeSessions(), !sessions.isEmpty());
+    }
+
+    private CompletableFuture<Void> negotiateBinary(ScannerSession session) {
+        return session.negotiateBinary(BINARY_BAUD_RATE).thenAccept(binary -> {
+            if (binary) {
+                fireStatus("Scanner on " + session.getPortName() + " switched to binary protocol at " + BINARY_BAUD_RATE + " baud");
+            } else {
+                AsyncLog.info("Scanner on " + session.getPortName() + " stays on the text protocol");
+            }
+        });
+    }
+
+    /*
+     * Puts the scanner's template slots under the host: reads its sensor
+     * number and used slots, numbers it if it has never been numbered, and
+     * tells it which slot to enroll into next. A sensor that already holds
+     * templates but no number is taken for the original single sensor and
+     * gets 0 if that is free, so its IDs stay as they were. A sketch that
+     * predates SENSOR keeps choosing its own IDs as sensor 0.
+     */
+    private void attachTemplates(ScannerSession session) {
+        SensorCommandChannel commands = session.getCommands();
+        String portName = session.getPortName();
+        commands.sensorInfo(null).thenCompose(info -> {
+            session.capacity = Math.min(info.capacity, TemplateSlotAllocator.SENSOR_STRIDE - 1);
+            return commands.occupiedSlots(session.capacity).thenCompose(occupied -> {
+                if (info.number != SensorCommandChannel.SensorInfo.UNNUMBERED) {
+                    if (!slotAllocator.attach(info.number, session.capacity, occupied)) {
+                        throw new IllegalStateException("another connected scanner is also sensor " + info.number);
+                    }
+                    return CompletableFuture.completedFuture(info.number);
+                }
+                int number = slotAllocator.attachNew(session.capacity, occupied, sensorsInUse(occupied));
+                return commands.sensorInfo(number).handle((stored, failure) -> {
+                    if (failure != null) {
+                        slotAllocator.detach(number);
+                        throw new IllegalStateException(SensorCommandChannel.describe(failure));
+                    }
+                    return number;
+                });
+            });
+        }).whenComplete((number, failure) -> {
+            if (failure != null) {
+                session.sensorNumber = 0;
+                if (failure.getCause() instanceof SensorCommandChannel.CommandFailedException) {
+                    AsyncLog.info("Scanner on " + portName + " chooses its own template IDs: "
+                        + SensorCommandChannel.describe(failure));
+                } else {
+                    fireError("Serial Error", "Could not take over template slots on " + portName + ": "
+                        + SensorCommandChannel.describe(failure));
+                }
+                return;
+            }
+            session.sensorNumber = number;
+            session.hostManagedSlots = true;
+            for (StudentRecord record : registry.snapshot()) {
+                if (TemplateSlotAllocator.sensorOf(record.fingerprintID) == number) {
+                    slotAllocator.claim(number, TemplateSlotAllocator.slotOf(record.fingerprintID));
+                }
+            }
+            provisionSlot(session);
+            fireStatus("Scanner on " + portName + " is sensor " + number + " with "
+                + slotAllocator.free(number) + " of " + session.capacity + " template slots free");
+        });
+    }
+
+    /*
+     * Sensor numbers an unnumbered sensor must not take: those with students
+     * on the roster, except 0 for a sensor that already holds templates.
+     */
+    private Set<Integer> sensorsInUse(BitSet occupied) {
+        Set<Integer> taken = new HashSet<>();
+        for (StudentRecord record : registry.snapshot()) {
+            taken.add(TemplateSlotAllocator.sensorOf(record.fingerprintID));
+        }
+        if (!occupied.isEmpty()) {
+            taken.remove(0);
+        }
+        return taken;
+    }
+
+    /*
+     * Reserves the sensor's lowest free slot and sends it as the target of
+     * the next enrollment.
+     */
+    private void provisionSlot(ScannerSession session) {
+        int slot = slotAllocator.reserve(session.sensorNumber);
+        session.getCommands().nextSlot(slot).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                fireError("Serial Error", "Failed to assign the next template slot on " + session.getPortName()
+                    + ": " + SensorCommandChannel.describe(failure));
+            } else if (slot == TemplateSlotAllocator.NO_SLOT) {
+                fireStatus("Sensor " + session.sensorNumber + " on " + session.getPortName()
+                    + " is full; new students cannot enroll there");
+            } else {
+                StudentRecord next = registry.findByFingerprint(TemplateSlotAllocator.globalID(session.sensorNumber, slot));
+                if (next != null) {
+                    fireStatus("Next enrollment on " + session.getPortName() + ": " + next.name
+                        + " (ID: " + next.studentID + ")");
+                }
+            }
+        });
+    }
+
+    private void fireStatus(String message) {
+        for (Listener listener : listeners) {
+            listener.statusChanged(message);
+        }
+    }
+
+    private void fireConnection(String message, boolean connected) {
+        for (Listener listener : listeners) {
+            listener.connectionChanged(message, connected);
+        }
+    }
+
+    private void fireError(String title, String message) {
+        for (Listener listener : listeners) {
+            listener.errorOccurred(title, message);
+        }
+    }
+
+    private void scanFailed(ScannerSession session, String message) {
+        fireStatus(message);
+        scanStates.failed(session, message);
+    }
+
+    private void fireScanState(ScannerSession session, ScanStateMachine.State state, String message) {
+        for (Listener listener : listeners) {
+            listener.scanStateChanged(session, state, message);
+        }
+    }
+}
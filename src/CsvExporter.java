@@ -0,0 +1,101 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/*
+ * Streams roster rows to a CSV file following RFC 4180: CRLF line endings,
+ * and any field containing a comma, quote or line break is quoted with inner
+ * quotes doubled. Meant to run off the EDT on a registry snapshot; the filter
+ * selects rows by last scan time for incremental and per-day exports.
+ */
+public class CsvExporter {
+
+    public interface ProgressListener {
+        void onProgress(int processed, int total);
+    }
+
+    private static final String[] HEADER = {"Student ID", "Name", "Fingerprint ID", "Status", "Last Scan"};
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private CsvExporter() {
+    }
+
+    public static int export(List<StudentRecord> records, LongPredicate lastScanFilter, Path target,
+            ProgressListener progress) throws IOException {
+        int written = 0;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            for (int i = 0; i < HEADER.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeField(writer, HEADER[i]);
+            }
+            writer.write("\r\n");
+
+            int total = records.size();
+            for (int i = 0; i < total; i++) {
+                StudentRecord record = records.get(i);
+                if (lastScanFilter.test(record.lastScan)) {
+                    writeField(writer, record.studentID);
+                    writer.write(',');
+                    writeField(writer, record.name);
+                    writer.write(',');
+                    writer.write(Integer.toString(record.fingerprintID));
+                    writer.write(',');
+                    writeField(writer, record.status);
+                    writer.write(',');
+                    writer.write(Timestamps.format(record.lastScan));
+                    writer.write("\r\n");
+                    written++;
+                }
+                if (progress != null && (i + 1) % PROGRESS_INTERVAL == 0) {
+                    progress.onProgress(i + 1, total);
+                }
+            }
+            if (progress != null) {
+                progress.onProgress(total, total);
+            }
+        }
+        return written;
+    }
+
+    static void writeField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuoting(value)) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        int start = 0;
+        int quote;
+        while ((quote = value.indexOf('"', start)) != -1) {
+            writer.write(value, start, quote - start + 1);
+            writer.write('"');
+            start = quote + 1;
+        }
+        writer.write(value, start, value.length() - start);
+        writer.write('"');
+    }
+
+    private static boolean needsQuoting(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
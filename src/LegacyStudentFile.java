@@ -0,0 +1,97 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamConstants;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Reader for the pre-binary students.dat, a serialized ArrayList of the
+ * GUI's old nested Student class. Only AttendanceService's migrator uses it.
+ * The stream names that class AttendanceGUI$Student; LegacyInputStream reads
+ * it into the Student below instead, so the service needs nothing from the
+ * GUI.
+ */
+final class LegacyStudentFile {
+    private static final String STREAM_CLASS_NAME = "AttendanceGUI$Student";
+
+    /*
+     * Shape of the old class. The UID is pinned to the value the original
+     * class was written with so old files stay readable.
+     */
+    private static final class Student implements Serializable {
+        private static final long serialVersionUID = 6171880077894948344L;
+
+        String studentID;
+        String name;
+        int fingerprintID;
+        String status;
+        String lastScan;
+    }
+
+    /*
+     * resolveClass maps the old class name to Student. The descriptor is
+     * swapped as well, because ObjectInputStream otherwise rejects a local
+     * class whose name differs from the stream's.
+     */
+    private static final class LegacyInputStream extends ObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            if (STREAM_CLASS_NAME.equals(descriptor.getName())) {
+                return ObjectStreamClass.lookup(Student.class);
+            }
+            return descriptor;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+            if (STREAM_CLASS_NAME.equals(descriptor.getName())) {
+                return Student.class;
+            }
+            return super.resolveClass(descriptor);
+        }
+    }
+
+    private LegacyStudentFile() {
+    }
+
+    static boolean isLegacy(Path dataFile) throws IOException {
+        if (!Files.exists(dataFile) || Files.size(dataFile) < 2) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(dataFile))) {
+            return in.readShort() == ObjectStreamConstants.STREAM_MAGIC;
+        }
+    }
+
+    static List<StudentRecord> read(Path legacyFile) throws IOException {
+        List<StudentRecord> records = new ArrayList<>();
+        try (ObjectInputStream in = new LegacyInputStream(new BufferedInputStream(Files.newInputStream(legacyFile)))) {
+            for (Object element : (List<?>) in.readObject()) {
+                Student student = (Student) element;
+                records.add(new StudentRecord(
+                    records.size(),
+                    student.studentID,
+                    student.name,
+                    student.fingerprintID,
+                    StudentRegistry.internStatus(student.status),
+                    Timestamps.parse(student.lastScan)
+                ));
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unreadable legacy student file: " + legacyFile, e);
+        }
+        return records;
+    }
+}
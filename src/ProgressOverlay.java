@@ -0,0 +1,120 @@
+import javax.swing.*;
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * The window's one progress indicator: a card laid over the bottom of the
+ * frame as its glass pane, built once and shown, updated and hidden for
+ * every scan, export and import. Any thread may call showTask, updateTask
+ * and hideTask; they only record the latest state per task and schedule at
+ * most one pending EDT update, so a burst of scan events costs one repaint.
+ * With several tasks under way the most recently updated one is shown.
+ */
+public class ProgressOverlay extends JComponent {
+    private static final long serialVersionUID = 9174009344763343303L;
+
+    private static final class Task {
+        final String title;
+        final String message;
+        final int percent;
+
+        Task(String title, String message, int percent) {
+            this.title = title;
+            this.message = message;
+            this.percent = percent;
+        }
+    }
+
+    // Percent of a task whose length is unknown.
+    public static final int INDETERMINATE = -1;
+
+    private final Map<Object, Task> tasks = new LinkedHashMap<>();
+    private final JLabel titleLabel = new JLabel();
+    private final JLabel messageLabel = new JLabel();
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private boolean scheduled;
+
+    public ProgressOverlay() {
+        setLayout(new GridBagLayout());
+
+        titleLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        titleLabel.setForeground(AttendanceGUI.HEADER_COLOR);
+        messageLabel.setFont(new Font("Segoe UI", Font.PLAIN, 14));
+        messageLabel.setForeground(AttendanceGUI.TEXT_PRIMARY);
+        messageLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        progressBar.setPreferredSize(new Dimension(350, 24));
+        progressBar.setForeground(AttendanceGUI.PRIMARY_COLOR);
+
+        JPanel card = new JPanel(new BorderLayout(10, 10));
+        card.setBackground(AttendanceGUI.CARD_COLOR);
+        card.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(new Color(189, 195, 199), 1),
+            BorderFactory.createEmptyBorder(15, 20, 15, 20)
+        ));
+        card.add(titleLabel, BorderLayout.NORTH);
+        card.add(messageLabel, BorderLayout.CENTER);
+        card.add(progressBar, BorderLayout.SOUTH);
+
+        GridBagConstraints constraints = new GridBagConstraints();
+        constraints.anchor = GridBagConstraints.SOUTH;
+        constraints.weighty = 1;
+        constraints.insets = new Insets(0, 0, 90, 0);
+        add(card, constraints);
+    }
+
+    public void showTask(Object key, String title, String message) {
+        post(key, new Task(title, message, INDETERMINATE));
+    }
+
+    /*
+     * Updates a task that is showing; keeps its title.
+     */
+    public void updateTask(Object key, String message, int percent) {
+        synchronized (tasks) {
+            Task task = tasks.get(key);
+            if (task != null) {
+                post(key, new Task(task.title, message, percent));
+            }
+        }
+    }
+
+    public void hideTask(Object key) {
+        post(key, null);
+    }
+
+    private void post(Object key, Task task) {
+        synchronized (tasks) {
+            tasks.remove(key);
+            if (task != null) {
+                tasks.put(key, task);
+            }
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        SwingUtilities.invokeLater(this::apply);
+    }
+
+    private void apply() {
+        Task shown = null;
+        synchronized (tasks) {
+            scheduled = false;
+            for (Task task : tasks.values()) {
+                shown = task;
+            }
+        }
+        if (shown == null) {
+            setVisible(false);
+            return;
+        }
+        titleLabel.setText(shown.title);
+        messageLabel.setText(shown.message);
+        progressBar.setIndeterminate(shown.percent == INDETERMINATE);
+        if (shown.percent != INDETERMINATE) {
+            progressBar.setValue(shown.percent);
+        }
+        setVisible(true);
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * Plays a serial capture (see AsyncLog) back into the station as fast as
+ * the scan path takes it, so an incident or a day's load can be reproduced
+ * on a machine without the scanner. Named "replay:<file>", or
+ * "replay:<file>@<port>" to replay one port of a capture that holds several.
+ *
+ * The lines the sketch sent ("<") and the raw frames ("#") are fed through a
+ * SerialLineFramer exactly like bytes from a port; frames need the session
+ * on the binary protocol. Lines the capture had to cut ("~") are skipped, and
+ * so are the captured answers to the original host's commands - this host's commands
+ * get answers of their own, as from a sketch that numbers no sensors, so the
+ * replayed IDs reach the roster unchanged. Playback starts after the banner
+ * once the host has sent its setup commands and gone quiet, and scans are
+ * stamped with their captured times (ScannerTransport.currentTimeMillis).
+ */
+public class ReplayTransport implements ScannerTransport {
+    public static final String PREFIX = "replay:";
+
+    private static final long SETUP_QUIET_MS = 500;
+    private static final long SETUP_TIMEOUT_MS = 10_000;
+
+    private final String name;
+    private final String file;
+    private final String port;
+    private final StringBuilder command = new StringBuilder();
+    private final ArrayDeque<String> pendingCommands = new ArrayDeque<>();
+    private byte[] line = new byte[256];
+    private SerialLineFramer framer;
+    private SensorFrameCodec.Parser frames;
+    private boolean binary;
+    private boolean emitting;
+    private Thread player;
+    private volatile boolean open;
+    private volatile long lastCommandNanos;
+    private volatile long capturedMillis = System.currentTimeMillis();
+
+    public ReplayTransport(String name) {
+        this.name = name;
+        String spec = name.substring(PREFIX.length());
+        int at = spec.lastIndexOf('@');
+        this.file = at < 0 ? spec : spec.substring(0, at);
+        this.port = at < 0 ? null : spec.substring(at + 1);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean open(SerialLineFramer.LineHandler handler) {
+        if (!Files.isReadable(Paths.get(file))) {
+            AsyncLog.info("Cannot read capture " + file);
+            return false;
+        }
+        framer = new SerialLineFramer(null, handler);
+        open = true;
+        player = new Thread(this::play, "replay-" + Paths.get(file).getFileName());
+        player.setDaemon(true);
+        player.start();
+        return true;
+    }
+
+    @Override
+    public long getOverflowedLines() {
+        return framer == null ? 0 : framer.getOverflowedLines();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void write(byte[] data, int offset, int length) {
+        lastCommandNanos = System.nanoTime();
+        for (int i = offset; i < offset + length; i++) {
+            char c = (char) data[i];
+            if (c == '\n') {
+                pendingCommands.add(command.toString());
+                command.setLength(0);
+            } else if (c != '\r') {
+                command.append(c);
+            }
+        }
+        if (!emitting) {
+            runPendingCommands();
+        }
+    }
+
+    @Override
+    public synchronized boolean switchMode(int baudRate, SensorFrameCodec.Parser frames) {
+        this.frames = frames;
+        framer.setFrameParser(frames);
+        return true;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return capturedMillis;
+    }
+
+    @Override
+    public long nanoTime() {
+        return capturedMillis * 1_000_000L;
+    }
+
+    @Override
+    public boolean isReplay() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        if (player != null) {
+            player.interrupt();
+        }
+    }
+
+    private void play() {
+        long started = System.nanoTime();
+        int replayed = 0;
+        int skipped = 0;
+        boolean setUp = false;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.US_ASCII)) {
+            String entry;
+            while (open && (entry = reader.readLine()) != null) {
+                // <date> <time> <port> <direction> <text>
+                String[] fields = entry.split(" ", 5);
+                if (fields.length < 4 || (port != null && !port.equals(fields[2]))) {
+                    continue;
+                }
+                String direction = fields[3];
+                String text = fields.length > 4 ? fields[4] : "";
+                if (direction.equals(">")) {
+                    // The original host's first command: the banner is out,
+                    // wait for this host to set the scanner up before the rest.
+                    if (!setUp) {
+                        awaitSetup();
+                        setUp = true;
+                    }
+                    continue;
+                }
+                if (direction.equals("~")) {
+                    skipped++;
+                    continue;
+                }
+                if (!direction.equals("<") && !direction.equals("#")) {
+                    continue;
+                }
+                try {
+                    capturedMillis = LocalDateTime.parse(fields[0] + " " + fields[1], AsyncLog.CAPTURE_TIME_FORMAT)
+                        .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    skipped++;
+                    continue;
+                }
+                boolean delivered = direction.equals("<") ? replayLine(text) : replayFrame(text);
+                if (delivered) {
+                    replayed++;
+                } else {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            AsyncLog.error("Error reading capture " + file, e);
+        }
+        long millis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+        AsyncLog.info("Replayed " + replayed + " lines from " + file + " in " + millis + " ms ("
+            + replayed * 1000L / millis + " lines/s)" + (skipped > 0 ? ", skipped " + skipped : ""));
+        // Stay open, so the station keeps the scanner rather than reconnecting
+        // and replaying the file again.
+    }
+
+    private void awaitSetup() {
+        long deadline = System.nanoTime() + SETUP_TIMEOUT_MS * 1_000_000L;
+        try {
+            while (open && System.nanoTime() < deadline) {
+                long last = lastCommandNanos;
+                if (last != 0 && System.nanoTime() - last >= SETUP_QUIET_MS * 1_000_000L) {
+                    return;
+                }
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Answers to the original host's commands are not replayed.
+     */
+    private synchronized boolean replayLine(String text) {
+        if (text.startsWith("@")) {
+            return false;
+        }
+        report(SensorFrameCodec.TYPE_TEXT, text);
+        return true;
+    }
+
+    /*
+     * Answers to the original host's commands are not replayed, nor a frame
+     * the hex of which does not parse.
+     */
+    private synchronized boolean replayFrame(String text) {
+        if (frames == null) {
+            return false;
+        }
+        String hex = text.replace(" ", "");
+        int size = hex.length() / 2;
+        if (hex.length() % 2 != 0 || size <= SensorFrameCodec.HEADER_LENGTH) {
+            return false;
+        }
+        if (line.length < size) {
+            line = Arrays.copyOf(line, size);
+        }
+        for (int i = 0; i < size; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return false;
+            }
+            line[i] = (byte) (high << 4 | low);
+        }
+        if ((line[2] & 0xFF) == SensorFrameCodec.TYPE_RESPONSE) {
+            return false;
+        }
+        emit(size);
+        return true;
+    }
+
+    /*
+     * Like fingerprintScan.ino with no SENSOR command: it chooses its own
+     * template IDs, so replayed IDs stay as captured.
+     */
+    private void handleCommand(String text) {
+        if (!text.startsWith("@")) {
+            return;
+        }
+        String[] parts = text.split(" ");
+        String id = parts[0].substring(1);
+        String verb = parts.length > 1 ? parts[1] : "";
+        switch (verb) {
+            case "PING":
+                reply(id, binary ? "OK BINARY" : "OK TEXT");
+                break;
+            case "BINARY":
+                reply(id, "OK " + (parts.length > 2 ? parts[2] : ""));
+                binary = true;
+                break;
+            case "DELETE":
+            case "CLEAR":
+                reply(id, "OK");
+                break;
+            case "COUNT":
+                reply(id, "OK 0");
+                break;
+            default:
+                reply(id, "ERR UNKNOWN");
+                break;
+        }
+    }
+
+    private void reply(String id, String text) {
+        report(SensorFrameCodec.TYPE_RESPONSE, "@" + id + " " + text);
+    }
+
+    private void report(int type, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.US_ASCII);
+        if (frames != null) {
+            frame(type, payload, payload.length);
+        } else {
+            if (line.length < payload.length + 2) {
+                line = Arrays.copyOf(line, payload.length + 2);
+            }
+            System.arraycopy(payload, 0, line, 0, payload.length);
+            line[payload.length] = '\r';
+            line[payload.length + 1] = '\n';
+            emit(payload.length + 2);
+        }
+    }
+
+    private void frame(int type, byte[] payload, int payloadLength) {
+        if (line.length < payloadLength + 4) {
+            line = Arrays.copyOf(line, payloadLength + 4);
+        }
+        emit(SensorFrameCodec.encode(type, payload, payloadLength, line, 0));
+    }
+
+    private void emit(int size) {
+        if (!open) {
+            return;
+        }
+        emitting = true;
+        try {
+            framer.feed(line, 0, size);
+        } finally {
+            emitting = false;
+        }
+        runPendingCommands();
+    }
+
+    private void runPendingCommands() {
+        String text;
+        while (!emitting && (text = pendingCommands.poll()) != null) {
+            handleCommand(text);
+        }
+    }
+}
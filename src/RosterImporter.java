@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * Parses roster files for bulk enrollment: one student per line as
+ *
+ *   student ID, name [, fingerprint ID]
+ *
+ * comma-separated (RFC 4180 quoting, as CsvExporter writes it) or
+ * tab-separated. An optional header line is skipped, and columns past the
+ * third are ignored, so an exported attendance CSV imports as is. A quoted
+ * field may not span lines.
+ *
+ * Lines are parsed and validated in fixed-size chunks on the common
+ * fork/join pool; duplicate detection then runs once over the parsed rows in
+ * file order, so the first occurrence of a student or fingerprint ID wins.
+ * Nothing is applied here - AttendanceService.importRoster does that in one
+ * batch.
+ */
+public class RosterImporter {
+    public static final int NO_FINGERPRINT = 0;
+
+    private static final int CHUNK_SIZE = 2048;
+    private static final int MAX_STUDENT_ID_LENGTH = 64;
+    private static final int MAX_NAME_LENGTH = 128;
+
+    public static final class Row {
+        public final int line;
+        public final String studentID;
+        public final String name;
+        // NO_FINGERPRINT if the file leaves it to the station to assign.
+        public final int fingerprintID;
+
+        Row(int line, String studentID, String name, int fingerprintID) {
+            this.line = line;
+            this.studentID = studentID;
+            this.name = name;
+            this.fingerprintID = fingerprintID;
+        }
+    }
+
+    public static final class Result {
+        public final List<Row> rows;
+        public final List<String> errors;
+        public int added;
+        public int updated;
+
+        Result(List<Row> rows, List<String> errors) {
+            this.rows = rows;
+            this.errors = errors;
+        }
+
+        public void error(int line, String message) {
+            errors.add("Line " + line + ": " + message);
+        }
+    }
+
+    private static final class Chunk {
+        final List<Row> rows = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+    }
+
+    private RosterImporter() {
+    }
+
+    public static Result parse(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        String name = file.getFileName().toString().toLowerCase();
+        boolean tabs = name.endsWith(".tsv") || name.endsWith(".tab");
+        return parse(lines, tabs);
+    }
+
+    /*
+     * Tab-separated if tabs is set or the first line contains a tab.
+     */
+    public static Result parse(List<String> lines, boolean tabs) {
+        if (!lines.isEmpty() && lines.get(0).startsWith("\uFEFF")) {
+            lines.set(0, lines.get(0).substring(1));
+        }
+        char delimiter = tabs || (!lines.isEmpty() && lines.get(0).indexOf('\t') >= 0) ? '\t' : ',';
+        int first = !lines.isEmpty() && isHeader(split(lines.get(0), delimiter)) ? 1 : 0;
+
+        int chunks = (lines.size() - first + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        List<Chunk> parsed = IntStream.range(0, chunks).parallel()
+            .mapToObj(chunk -> parseChunk(lines, delimiter, first + chunk * CHUNK_SIZE,
+                Math.min(lines.size(), first + (chunk + 1) * CHUNK_SIZE)))
+            .collect(Collectors.toList());
+
+        Result result = new Result(new ArrayList<>(lines.size()), new ArrayList<>());
+        Map<String, Integer> lineByStudentID = new HashMap<>();
+        Map<Integer, Integer> lineByFingerprint = new HashMap<>();
+        for (Chunk chunk : parsed) {
+            result.errors.addAll(chunk.errors);
+            for (Row row : chunk.rows) {
+                Integer previous = lineByStudentID.putIfAbsent(row.studentID, row.line);
+                if (previous != null) {
+                    result.error(row.line, "student ID " + row.studentID + " already on line " + previous);
+                    continue;
+                }
+                if (row.fingerprintID != NO_FINGERPRINT) {
+                    previous = lineByFingerprint.putIfAbsent(row.fingerprintID, row.line);
+                    if (previous != null) {
+                        lineByStudentID.remove(row.studentID);
+                        result.error(row.line, "fingerprint ID " + row.fingerprintID + " already on line " + previous);
+                        continue;
+                    }
+                }
+                result.rows.add(row);
+            }
+        }
+        result.errors.sort(Comparator.comparingInt(RosterImporter::lineOf));
+        return result;
+    }
+
+    private static int lineOf(String error) {
+        return Integer.parseInt(error.substring("Line ".length(), error.indexOf(':')));
+    }
+
+    private static Chunk parseChunk(List<String> lines, char delimiter, int from, int to) {
+        Chunk chunk = new Chunk();
+        for (int i = from; i < to; i++) {
+            String text = lines.get(i);
+            int line = i + 1;
+            if (text.trim().isEmpty()) {
+                continue;
+            }
+            List<String> fields = split(text, delimiter);
+            if (fields == null) {
+                chunk.errors.add("Line " + line + ": unterminated quoted field");
+                continue;
+            }
+            String studentID = fields.get(0).trim();
+            String name = fields.size() > 1 ? fields.get(1).trim() : "";
+            String fingerprint = fields.size() > 2 ? fields.get(2).trim() : "";
+            String problem = validate(studentID, name);
+            if (problem != null) {
+                chunk.errors.add("Line " + line + ": " + problem);
+                continue;
+            }
+            int fingerprintID = NO_FINGERPRINT;
+            if (!fingerprint.isEmpty()) {
+                try {
+                    fingerprintID = Integer.parseInt(fingerprint);
+                } catch (NumberFormatException e) {
+                    fingerprintID = -1;
+                }
+                if (fingerprintID <= 0 || TemplateSlotAllocator.slotOf(fingerprintID) == 0) {
+                    chunk.errors.add("Line " + line + ": invalid fingerprint ID " + fingerprint);
+                    continue;
+                }
+            }
+            chunk.rows.add(new Row(line, studentID, name, fingerprintID));
+        }
+        return chunk;
+    }
+
+    /*
+     * Why the student ID and name cannot be stored, or null if they can. The
+     * lengths also keep a journal record within AttendanceJournal's bound.
+     */
+    public static String validate(String studentID, String name) {
+        if (studentID.isEmpty()) {
+            return "missing student ID";
+        }
+        if (studentID.length() > MAX_STUDENT_ID_LENGTH) {
+            return "student ID longer than " + MAX_STUDENT_ID_LENGTH + " characters";
+        }
+        String problem = validateName(name);
+        if (problem != null) {
+            return problem;
+        }
+        for (int i = 0; i < studentID.length(); i++) {
+            char c = studentID.charAt(i);
+            if (Character.isWhitespace(c) || Character.isISOControl(c)) {
+                return "student ID contains whitespace";
+            }
+        }
+        return null;
+    }
+
+    public static String validateName(String name) {
+        if (name.isEmpty()) {
+            return "missing name";
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            return "name longer than " + MAX_NAME_LENGTH + " characters";
+        }
+        return null;
+    }
+
+    private static boolean isHeader(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return false;
+        }
+        String first = fields.get(0).trim().replace(" ", "").replace("_", "").toLowerCase();
+        if (first.equals("studentid") || first.equals("id")) {
+            return true;
+        }
+        String fingerprint = fields.size() > 2 ? fields.get(2).trim() : "";
+        return !fingerprint.isEmpty() && !fingerprint.chars().allMatch(Character::isDigit);
+    }
+
+    /*
+     * The fields of one line, or null if a quote is left open.
+     */
+    private static List<String> split(String line, char delimiter) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
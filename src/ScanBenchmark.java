@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/*
+ * Headless benchmark of the scan-to-persisted path as the station runs it:
+ * simulated firmware lines -> SerialLineFramer -> SensorProtocolDecoder ->
+ * ScanDebouncer -> ScanPipeline -> AttendanceService.recordScan (registry,
+ * history, analytics) -> AttendanceJournal commit. Each roster size gets a
+ * fresh AttendanceService in a temporary directory with "sim:" scanners, one
+ * per sensor's worth of students, which the benchmark drives itself instead
+ * of the scanners' own timers.
+ * Latency is measured per scan up to the journal fsync; throughput is
+ * measured with scans arriving back to back and one final flush. Repeat-scan
+ * suppression and the serial capture are turned off, so every scan counts
+ * and nothing is written outside the temporary directory.
+ *
+ *   java -cp bin:jSerialComm-2.11.4.jar ScanBenchmark [rosterSize ...]
+ */
+public class ScanBenchmark {
+    private static final int WARMUP_SCANS = 5_000;
+    private static final int LATENCY_SCANS = 2_000;
+    private static final int THROUGHPUT_SCANS = 50_000;
+    private static final long CONNECT_TIMEOUT_MS = 30_000;
+    private static final int SENSOR_CAPACITY = TemplateSlotAllocator.SENSOR_STRIDE - 1;
+
+    private final AttendanceService service;
+    private final Semaphore recorded = new Semaphore(0);
+    private final List<SimulatedScanner> scanners = new ArrayList<>();
+    private int nextScanner;
+    private long lost;
+
+    private ScanBenchmark(int rosterSize, Path directory) throws IOException, InterruptedException {
+        service = new AttendanceService(directory);
+        service.addListener(new AttendanceService.Listener() {
+            @Override
+            public void scanRecorded(ScannerSession session, StudentRecord record, boolean enrolled, long postedNanos) {
+                recorded.release();
+            }
+        });
+        service.start();
+
+        // A roster beyond one sensor's ID range is spread over several.
+        int sensors = (rosterSize + SENSOR_CAPACITY - 1) / SENSOR_CAPACITY;
+        List<String> names = new ArrayList<>(sensors);
+        for (int i = 0; i < sensors; i++) {
+            int templates = rosterSize / sensors + (i < rosterSize % sensors ? 1 : 0);
+            names.add("sim:0:" + templates + ":" + templates + ":" + (i + 1));
+        }
+        service.startScanners(names);
+        List<ScannerSession> sessions = awaitSensors(sensors);
+
+        List<String> roster = new ArrayList<>(rosterSize);
+        for (ScannerSession session : sessions) {
+            SimulatedScanner scanner = (SimulatedScanner) session.getTransport();
+            scanner.setEnrollmentRatio(0);
+            scanners.add(scanner);
+            for (int slot = 1; slot <= scanner.getTemplateCount(); slot++) {
+                int id = TemplateSlotAllocator.globalID(session.sensorNumber, slot);
+                roster.add("STU" + id + ",Student " + id + "," + id);
+            }
+        }
+        RosterImporter.Result imported = service.importRoster(RosterImporter.parse(roster, false));
+        if (!imported.errors.isEmpty()) {
+            throw new IOException("Roster import failed: " + imported.errors.get(0));
+        }
+    }
+
+    /*
+     * Waits until every simulated scanner is connected and numbered.
+     */
+    private List<ScannerSession> awaitSensors(int sensors) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            List<ScannerSession> sessions = new ArrayList<>(service.getSessions());
+            if (sessions.size() == sensors && sessions.stream().allMatch(session -> session.hostManagedSlots)) {
+                return sessions;
+            }
+            Thread.sleep(10);
+        }
+        throw new IOException("Simulated scanners did not connect");
+    }
+
+    private void scan() {
+        scanners.get(nextScanner).scanRandom();
+        nextScanner = (nextScanner + 1) % scanners.size();
+    }
+
+    private long[] measureLatency(int scans) throws InterruptedException {
+        long[] samples = new long[scans];
+        for (int i = 0; i < scans; i++) {
+            long start = System.nanoTime();
+            await(1, this::scan);
+            service.flush();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples;
+    }
+
+    private double measureThroughput(int scans) throws InterruptedException {
+        long start = System.nanoTime();
+        await(scans, () -> {
+            for (int i = 0; i < scans; i++) {
+                scan();
+            }
+        });
+        service.flush();
+        return scans / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /*
+     * Runs the scans and waits for the worker to record every one of them
+     * that the pipeline accepted.
+     */
+    private void await(int scans, Runnable scan) throws InterruptedException {
+        ScanMetrics metrics = service.getMetrics();
+        long droppedBefore = metrics.getRejectedScans() + metrics.getFailedScans() + metrics.getSuppressedScans();
+        scan.run();
+        long dropped = metrics.getRejectedScans() + metrics.getFailedScans() + metrics.getSuppressedScans() - droppedBefore;
+        lost += dropped;
+        recorded.acquire((int) (scans - dropped));
+    }
+
+    private void close() {
+        service.close();
+    }
+
+    private static double micros(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)));
+        return sorted[index] / 1000.0;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int[] rosterSizes = args.length == 0
+                ? new int[]{1_000, 10_000, 100_000}
+                : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+        System.setProperty("attendance.debounce.millis", "0");
+        System.setProperty("attendance.capture", "false");
+
+        // The station logs every scanner line to the console, so the table
+        // comes at the end.
+        List<String> rows = new ArrayList<>();
+        for (int rosterSize : rosterSizes) {
+            Path directory = Files.createTempDirectory("scan-benchmark");
+            ScanBenchmark benchmark = new ScanBenchmark(rosterSize, directory);
+            try {
+                benchmark.measureThroughput(WARMUP_SCANS);
+                long[] latency = benchmark.measureLatency(LATENCY_SCANS);
+                double throughput = benchmark.measureThroughput(THROUGHPUT_SCANS);
+                rows.add(String.format("%10d %12.1f %12.1f %12.1f %12.1f %14.0f",
+                        rosterSize, micros(latency, 0.50), micros(latency, 0.99),
+                        micros(latency, 0.999), micros(latency, 1.0), throughput));
+                if (benchmark.lost > 0) {
+                    int expected = WARMUP_SCANS + LATENCY_SCANS + THROUGHPUT_SCANS;
+                    rows.add("Recorded " + (expected - benchmark.lost) + " of " + expected + " scans");
+                }
+            } finally {
+                benchmark.close();
+                deleteRecursively(directory);
+            }
+        }
+        System.out.printf("%n%10s %12s %12s %12s %12s %14s%n",
+                "roster", "p50 (us)", "p99 (us)", "p99.9 (us)", "max (us)", "scans/sec");
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Drops repeat scans of the same fingerprint inside a fixed window. Accepted
+ * scans go into a ring in arrival order; because the window is the same for
+ * every entry, expiry order equals arrival order, so expiring is popping from
+ * the head of the ring. An IntIntHashMap from fingerprint to ring index makes
+ * the duplicate check O(1). Nothing is allocated per scan; the ring only
+ * grows if more distinct fingerprints than its capacity are live at once.
+ */
+public class ScanDebouncer {
+    private static final int NONE = -1;
+
+    private final long windowNanos;
+    private final IntIntHashMap indexByFingerprint;
+    private int[] fingerprints;
+    private long[] expiries;
+    private int mask;
+    private int head;
+    private int size;
+
+    public ScanDebouncer(long windowMillis, int expectedFingerprints) {
+        this.windowNanos = windowMillis * 1_000_000L;
+        this.indexByFingerprint = new IntIntHashMap(expectedFingerprints, NONE);
+        int capacity = Integer.highestOneBit(Math.max(16, expectedFingerprints - 1)) << 1;
+        this.fingerprints = new int[capacity];
+        this.expiries = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public long getWindowMillis() {
+        return windowNanos / 1_000_000L;
+    }
+
+    /*
+     * Returns false if the fingerprint was already accepted within the
+     * window ending at nowNanos (System.nanoTime()).
+     */
+    public synchronized boolean accept(int fingerprintID, long nowNanos) {
+        if (windowNanos <= 0) {
+            return true;
+        }
+        expire(nowNanos);
+        if (indexByFingerprint.containsKey(fingerprintID)) {
+            return false;
+        }
+        if (size == fingerprints.length) {
+            grow();
+        }
+        int index = (head + size) & mask;
+        fingerprints[index] = fingerprintID;
+        expiries[index] = nowNanos + windowNanos;
+        indexByFingerprint.put(fingerprintID, index);
+        size++;
+        return true;
+    }
+
+    /*
+     * Undoes an accept whose scan never got recorded, so the student's retry
+     * is not suppressed. The ring entry is left to expire on its own.
+     */
+    public synchronized void forget(int fingerprintID) {
+        indexByFingerprint.remove(fingerprintID);
+    }
+
+    public synchronized void clear() {
+        indexByFingerprint.clear();
+        head = 0;
+        size = 0;
+    }
+
+    private void expire(long nowNanos) {
+        while (size > 0 && expiries[head] - nowNanos <= 0) {
+            int fingerprintID = fingerprints[head];
+            if (indexByFingerprint.get(fingerprintID) == head) {
+                indexByFingerprint.remove(fingerprintID);
+            }
+            head = (head + 1) & mask;
+            size--;
+        }
+    }
+
+    private void grow() {
+        int capacity = fingerprints.length << 1;
+        int[] newFingerprints = new int[capacity];
+        long[] newExpiries = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) & mask;
+            newFingerprints[i] = fingerprints[from];
+            newExpiries[i] = expiries[from];
+            if (indexByFingerprint.get(fingerprints[from]) == from) {
+                indexByFingerprint.put(fingerprints[from], i);
+            }
+        }
+        fingerprints = newFingerprints;
+        expiries = newExpiries;
+        mask = capacity - 1;
+        head = 0;
+    }
+}
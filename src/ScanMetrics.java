@@ -0,0 +1,279 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Per-stage latency of a scan, from the sensor's "Image taken" to the journal
+ * fsync that makes the attendance durable, plus counters for scans that were
+ * rejected, failed, suppressed as repeats or could not be decoded, and for
+ * serial lines dropped for overflowing the framer and binary frames dropped
+ * for a bad CRC. Stages are recorded in nanoseconds
+ * into LatencyHistograms. The figures are exposed over JMX and written to a
+ * local metrics file on a fixed period.
+ */
+public class ScanMetrics implements ScanMetricsMBean, AttendanceJournal.CommitListener {
+
+    public enum Stage {
+        IMAGE_TO_NEW_ID,
+        QUEUE_WAIT,
+        LOOKUP,
+        HISTORY,
+        TABLE_UPDATE,
+        PERSIST,
+        END_TO_END
+    }
+
+    public static final String OBJECT_NAME = "AttendanceSystem:type=ScanMetrics";
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final double NANOS_PER_MICRO = 1_000.0;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final LongAdder scans = new LongAdder();
+    private final LongAdder enrollments = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private volatile LongSupplier unknownLines = () -> 0;
+    private volatile LongSupplier overflowedLines = () -> 0;
+    private volatile LongSupplier corruptFrames = () -> 0;
+    private volatile IntSupplier queueDepth = () -> 0;
+    private ScheduledExecutorService reporter;
+
+    public ScanMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void scanRecorded(boolean enrolled) {
+        scans.increment();
+        if (enrolled) {
+            enrollments.increment();
+        }
+    }
+
+    public void scanRejected() {
+        rejected.increment();
+    }
+
+    public void scanFailed() {
+        failed.increment();
+    }
+
+    public void scanSuppressed() {
+        suppressed.increment();
+    }
+
+    public void setUnknownLineCounter(LongSupplier unknownLines) {
+        this.unknownLines = unknownLines;
+    }
+
+    public void setOverflowedLineCounter(LongSupplier overflowedLines) {
+        this.overflowedLines = overflowedLines;
+    }
+
+    public void setCorruptFrameCounter(LongSupplier corruptFrames) {
+        this.corruptFrames = corruptFrames;
+    }
+
+    /*
+     * Scans accepted by the ScanPipeline and not yet recorded.
+     */
+    public void setQueueDepthGauge(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    @Override
+    public void committed(long enqueuedNanos, long originNanos, long committedNanos) {
+        record(Stage.PERSIST, committedNanos - enqueuedNanos);
+        if (originNanos > 0) {
+            record(Stage.END_TO_END, committedNanos - originNanos);
+        }
+    }
+
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            AsyncLog.error("Cannot register the metrics MBean", e);
+        }
+    }
+
+    public void startReporting(Path file, long periodSeconds) {
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "scan-metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            try {
+                writeReport(file);
+            } catch (IOException e) {
+                AsyncLog.error("Error writing the metrics report", e);
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+        }
+    }
+
+    public void writeReport(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write("# Scan metrics, latencies in milliseconds\n");
+            writer.write("timestamp=" + Timestamps.format(System.currentTimeMillis()) + "\n");
+            writer.write("scans=" + scans.sum() + "\n");
+            writer.write("enrollments=" + enrollments.sum() + "\n");
+            writer.write("rejected=" + rejected.sum() + "\n");
+            writer.write("failed=" + failed.sum() + "\n");
+            writer.write("suppressed=" + suppressed.sum() + "\n");
+            writer.write("unknownLines=" + unknownLines.getAsLong() + "\n");
+            writer.write("overflowedLines=" + overflowedLines.getAsLong() + "\n");
+            writer.write("corruptFrames=" + corruptFrames.getAsLong() + "\n");
+            writer.write("queueDepth=" + queueDepth.getAsInt() + "\n");
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = histogram(stage);
+                String prefix = stage.name().toLowerCase();
+                writer.write(prefix + ".count=" + histogram.getCount() + "\n");
+                writer.write(String.format("%s.mean=%.3f%n", prefix, histogram.getMean() / NANOS_PER_MILLI));
+                writer.write(String.format("%s.p50=%.3f%n", prefix, histogram.getValueAtPercentile(50) / NANOS_PER_MILLI));
+                writer.write(String.format("%s.p90=%.3f%n", prefix, histogram.getValueAtPercentile(90) / NANOS_PER_MILLI));
+                writer.write(String.format("%s.p99=%.3f%n", prefix, histogram.getValueAtPercentile(99) / NANOS_PER_MILLI));
+                writer.write(String.format("%s.p999=%.3f%n", prefix, histogram.getValueAtPercentile(99.9) / NANOS_PER_MILLI));
+                writer.write(String.format("%s.max=%.3f%n", prefix, histogram.getMax() / NANOS_PER_MILLI));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public long getScanCount() {
+        return scans.sum();
+    }
+
+    @Override
+    public long getEnrollmentCount() {
+        return enrollments.sum();
+    }
+
+    @Override
+    public long getRejectedScans() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getFailedScans() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getSuppressedScans() {
+        return suppressed.sum();
+    }
+
+    @Override
+    public long getUnknownLines() {
+        return unknownLines.getAsLong();
+    }
+
+    @Override
+    public long getOverflowedLines() {
+        return overflowedLines.getAsLong();
+    }
+
+    @Override
+    public long getCorruptFrames() {
+        return corruptFrames.getAsLong();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public double getImageToNewIdP99Millis() {
+        return histogram(Stage.IMAGE_TO_NEW_ID).getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return histogram(Stage.QUEUE_WAIT).getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getLookupP99Micros() {
+        return histogram(Stage.LOOKUP).getValueAtPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getHistoryP99Micros() {
+        return histogram(Stage.HISTORY).getValueAtPercentile(99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getTableUpdateP99Millis() {
+        return histogram(Stage.TABLE_UPDATE).getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPersistP99Millis() {
+        return histogram(Stage.PERSIST).getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getEndToEndP50Millis() {
+        return histogram(Stage.END_TO_END).getValueAtPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getEndToEndP99Millis() {
+        return histogram(Stage.END_TO_END).getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getEndToEndMaxMillis() {
+        return histogram(Stage.END_TO_END).getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        scans.reset();
+        enrollments.reset();
+        rejected.reset();
+        failed.reset();
+        suppressed.reset();
+    }
+}
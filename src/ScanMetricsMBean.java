@@ -0,0 +1,39 @@
+public interface ScanMetricsMBean {
+    long getScanCount();
+
+    long getEnrollmentCount();
+
+    long getRejectedScans();
+
+    long getFailedScans();
+
+    long getSuppressedScans();
+
+    long getUnknownLines();
+
+    long getOverflowedLines();
+
+    long getCorruptFrames();
+
+    int getQueueDepth();
+
+    double getImageToNewIdP99Millis();
+
+    double getQueueWaitP99Millis();
+
+    double getLookupP99Micros();
+
+    double getHistoryP99Micros();
+
+    double getTableUpdateP99Millis();
+
+    double getPersistP99Millis();
+
+    double getEndToEndP50Millis();
+
+    double getEndToEndP99Millis();
+
+    double getEndToEndMaxMillis();
+
+    void reset();
+}
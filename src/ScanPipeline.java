@@ -0,0 +1,117 @@
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Bounded hand-off between scanner sessions and the single worker that records
+ * scans. Sessions never wait on the EDT or on a dialog; if the worker falls
+ * behind, a session waits at most offerTimeoutMillis for room and the scan is
+ * then rejected - submit returns false and the caller counts it in
+ * ScanMetrics - rather than silently lost.
+ */
+public class ScanPipeline implements Closeable {
+
+    public interface Handler {
+        void onScan(ScannerSession session, int fingerprintID, long timestamp, long receivedNanos);
+    }
+
+    private static final class ScanEvent {
+        final ScannerSession session;
+        final int fingerprintID;
+        final long timestamp;
+        final long receivedNanos;
+
+        ScanEvent(ScannerSession session, int fingerprintID, long timestamp, long receivedNanos) {
+            this.session = session;
+            this.fingerprintID = fingerprintID;
+            this.timestamp = timestamp;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private static final ScanEvent STOP = new ScanEvent(null, 0, 0, 0);
+
+    private final ArrayBlockingQueue<ScanEvent> queue;
+    private final long offerTimeoutMillis;
+    private final Handler handler;
+    private final Thread worker;
+    private volatile boolean closed;
+
+    public ScanPipeline(int capacity, long offerTimeoutMillis, Handler handler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.handler = handler;
+        this.worker = new Thread(this::run, "scan-pipeline");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public boolean submit(ScannerSession session, int fingerprintID, long timestamp, long receivedNanos) {
+        ScanEvent event = new ScanEvent(session, fingerprintID, timestamp, receivedNanos);
+        if (closed) {
+            return false;
+        }
+        try {
+            if (session.getTransport().isReplay()) {
+                // A replay outruns the worker by design; a dropped scan would
+                // make it differ from the capture.
+                queue.put(event);
+                return true;
+            }
+            if (queue.offer(event, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /*
+     * Stops taking scans and waits for the worker to record the ones already
+     * accepted, so they reach the journal before it is closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            queue.put(STOP);
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Only a submit racing close() can leave anything behind STOP.
+        int abandoned = 0;
+        for (ScanEvent event : queue) {
+            if (event != STOP) {
+                abandoned++;
+            }
+        }
+        if (abandoned > 0) {
+            AsyncLog.info("Scan pipeline closed with " + abandoned + " scans not recorded");
+        }
+    }
+
+    private void run() {
+        while (true) {
+            ScanEvent event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == STOP) {
+                return;
+            }
+            try {
+                handler.onScan(event.session, event.fingerprintID, event.timestamp, event.receivedNanos);
+            } catch (Exception e) {
+                AsyncLog.error("Error recording a scan", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The lifecycle of one scan on each scanner:
+ *
+ *   IDLE -> CAPTURING -> MATCHING  -> COMMITTED | FAILED -> IDLE
+ *                     -> ENROLLING -> COMMITTED | FAILED -> IDLE
+ *
+ * Sensor events (from the session readers), the outcome of the scan (from
+ * the scan worker) and lost scanners all arrive here as inputs and are
+ * applied on one thread, the only one that ever writes a session's state;
+ * everybody else just reads ScannerSession.getScanState(). Every change is
+ * reported to the listener from that thread, in order.
+ *
+ * A scan that stops short - the sketch hung in its enrollment loop waiting
+ * for a finger, or gave up after "Image taken" with an error line - fails
+ * after a timeout instead of leaving the station mid-scan forever.
+ */
+public class ScanStateMachine implements Closeable {
+
+    public enum State {
+        IDLE,
+        CAPTURING,
+        MATCHING,
+        ENROLLING,
+        COMMITTED,
+        FAILED
+    }
+
+    public interface Listener {
+        /*
+         * COMMITTED and FAILED end the scan; the session is IDLE again by the
+         * time they are reported.
+         */
+        void stateChanged(ScannerSession session, State state, String message);
+    }
+
+    // From "Image taken" to NewID is a template search: a second or two.
+    private static final long CAPTURE_TIMEOUT_MS = 10_000;
+    // Enrollment waits on the student, for each step.
+    private static final long ENROLL_TIMEOUT_MS = 30_000;
+
+    private final Listener listener;
+    private final ScheduledExecutorService owner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scan-state");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ScanStateMachine(Listener listener) {
+        this.listener = listener;
+    }
+
+    /*
+     * A line or frame from the sketch. Events that do not move a scan along
+     * are ignored.
+     */
+    public void onEvent(ScannerSession session, SensorEvent event) {
+        post(() -> apply(session, event));
+    }
+
+    /*
+     * The scan worker recorded the scan.
+     */
+    public void committed(ScannerSession session, String message) {
+        post(() -> finish(session, State.COMMITTED, message));
+    }
+
+    /*
+     * The scan ended without being recorded: failed, repeated or dropped.
+     */
+    public void failed(ScannerSession session, String message) {
+        post(() -> finish(session, State.FAILED, message));
+    }
+
+    @Override
+    public void close() {
+        owner.shutdownNow();
+    }
+
+    /*
+     * Inputs that arrive while the station shuts down are dropped.
+     */
+    private void post(Runnable input) {
+        try {
+            owner.execute(input);
+        } catch (RejectedExecutionException e) {
+            // Closed.
+        }
+    }
+
+    private void apply(ScannerSession session, SensorEvent event) {
+        State state = session.scanState;
+        switch (event) {
+            case IMAGE_TAKEN:
+                if (state == State.IDLE) {
+                    enter(session, State.CAPTURING, "Capturing fingerprint image...", CAPTURE_TIMEOUT_MS);
+                }
+                break;
+            case MATCH:
+                if (state == State.CAPTURING) {
+                    enter(session, State.MATCHING, "Fingerprint recognized! Marking attendance...", CAPTURE_TIMEOUT_MS);
+                }
+                break;
+            case ENROLL_STARTED:
+                if (state == State.CAPTURING) {
+                    enter(session, State.ENROLLING, "Enrolling new fingerprint...", ENROLL_TIMEOUT_MS);
+                }
+                break;
+            case REMOVE_FINGER:
+                progress(session, State.ENROLLING, "Please remove your finger...");
+                break;
+            case PLACE_AGAIN:
+                progress(session, State.ENROLLING, "Please place the same finger again...");
+                break;
+            case ENROLLED:
+                progress(session, State.ENROLLING, "Enrollment complete!");
+                break;
+            case ENROLL_FAILED:
+                if (state == State.ENROLLING) {
+                    finish(session, State.FAILED, "Enrollment failed. Try again.");
+                }
+                break;
+            case DEVICE_ERROR:
+            case WAITING_FOR_FINGER:
+                // The sketch is back at its loop without a scan to report.
+                if (state == State.CAPTURING) {
+                    finish(session, State.FAILED, "Could not read the fingerprint. Try again.");
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void progress(ScannerSession session, State state, String message) {
+        if (session.scanState == state) {
+            enter(session, state, message, ENROLL_TIMEOUT_MS);
+        }
+    }
+
+    private void enter(ScannerSession session, State state, String message, long timeoutMillis) {
+        session.scanState = state;
+        long step = ++session.scanStep;
+        owner.schedule(() -> {
+            if (session.scanStep == step && session.scanState != State.IDLE) {
+                finish(session, State.FAILED, "Scanner on " + session.getPortName() + " did not finish the scan");
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        listener.stateChanged(session, state, message);
+    }
+
+    private void finish(ScannerSession session, State outcome, String message) {
+        if (session.scanState == State.IDLE) {
+            return;
+        }
+        session.scanState = State.IDLE;
+        session.scanStep++;
+        listener.stateChanged(session, outcome, message);
+    }
+}
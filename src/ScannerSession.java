@@ -0,0 +1,224 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * One Arduino scanner behind one transport. Each session has its own framer and
+ * reader thread (jSerialComm's per-port event thread, or the simulator's
+ * generator) and its own scan state, so several entrances can feed the shared
+ * StudentRegistry without contending on a global "processing" flag.
+ * Answers to host commands ("@<id> ...") go to the session's command channel
+ * instead of the listener.
+ *
+ * A session starts on the sketch's text lines at 9600 baud and can negotiate
+ * the binary frame protocol (SensorFrameCodec) at a higher rate; a sketch
+ * that refuses or does not answer keeps the session on text.
+ *
+ * Everything read or sent is handed to AsyncLog, never printed on the reader
+ * thread, and goes to the serial capture unless the transport is itself a
+ * replay.
+ */
+public class ScannerSession implements Closeable {
+
+    public interface LineListener {
+        void onLine(ScannerSession session, byte[] data, int offset, int length);
+
+        /*
+         * An event that arrived as a binary frame, already decoded.
+         */
+        default void onEvent(ScannerSession session, SensorEvent event, int value) {
+        }
+    }
+
+    public static final int LEGACY_CAPACITY = 127;
+
+    // The sketch falls back to text if the host is silent for 2 s after the
+    // switch, so the host waits a little longer than that for its PING.
+    private static final long NEGOTIATION_TIMEOUT_MS = 2000;
+    private static final long CONFIRM_TIMEOUT_MS = 3000;
+
+    private final ScannerTransport transport;
+    private final int scannerID;
+    private final LineListener listener;
+    private final SensorCommandChannel commands = new SensorCommandChannel(this);
+    private volatile boolean binary;
+    private volatile SensorFrameCodec.Parser frames;
+    // Corrupt frames counted by parsers of earlier negotiations.
+    private volatile long earlierCorruptFrames;
+    private volatile long lastActivityNanos = System.nanoTime();
+    private CompletableFuture<Boolean> negotiation;
+    // Set by AttendanceService once the sketch has been asked; a sketch
+    // without SENSOR stays sensor 0 with the 127 slots it manages itself.
+    volatile int sensorNumber = 0;
+    volatile int capacity = LEGACY_CAPACITY;
+    volatile boolean hostManagedSlots;
+    // Written only by ScanStateMachine's thread.
+    volatile ScanStateMachine.State scanState = ScanStateMachine.State.IDLE;
+    long scanStep;
+    long imageTakenNanos;
+
+    public ScannerSession(String portName, int scannerID, LineListener listener) {
+        this(ScannerTransport.forName(portName), scannerID, listener);
+    }
+
+    public ScannerSession(ScannerTransport transport, int scannerID, LineListener listener) {
+        this.transport = transport;
+        this.scannerID = scannerID;
+        this.listener = listener;
+    }
+
+    public int getScannerID() {
+        return scannerID;
+    }
+
+    public String getPortName() {
+        return transport.getName();
+    }
+
+    /*
+     * Which TemplateSlotAllocator sensor this scanner is; its slot n is
+     * fingerprint ID TemplateSlotAllocator.globalID(getSensorNumber(), n).
+     */
+    public int getSensorNumber() {
+        return sensorNumber;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public ScannerTransport getTransport() {
+        return transport;
+    }
+
+    public SensorCommandChannel getCommands() {
+        return commands;
+    }
+
+    /*
+     * System.nanoTime() of the last line or frame from the sketch.
+     */
+    public long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    public ScanStateMachine.State getScanState() {
+        return scanState;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /*
+     * Frames that failed their CRC on this session, over every negotiation.
+     */
+    public long getCorruptFrames() {
+        SensorFrameCodec.Parser parser = frames;
+        return earlierCorruptFrames + (parser == null ? 0 : parser.getCorruptFrames());
+    }
+
+    private synchronized SensorFrameCodec.Parser newFrameParser() {
+        if (frames != null) {
+            earlierCorruptFrames += frames.getCorruptFrames();
+        }
+        frames = new SensorFrameCodec.Parser(this::onFrame);
+        return frames;
+    }
+
+    /*
+     * Asks the sketch to switch to binary frames at baudRate, follows it, and
+     * proves the new link with a PING. Completes with true once frames are
+     * flowing, or false - back on text at 9600 baud - if the sketch refuses,
+     * does not answer (older firmware) or the PING is lost at the new rate.
+     */
+    public synchronized CompletableFuture<Boolean> negotiateBinary(int baudRate) {
+        if (negotiation != null && (binary || !negotiation.isDone())) {
+            return negotiation;
+        }
+        // Async: the serial reader thread that completes the BINARY answer
+        // must not be the one that re-clocks its own port.
+        negotiation = commands.request("BINARY", Integer.toString(baudRate), NEGOTIATION_TIMEOUT_MS)
+            .thenComposeAsync(payload -> {
+                if (!transport.switchMode(baudRate, newFrameParser())) {
+                    return CompletableFuture.completedFuture(false);
+                }
+                return commands.request("PING", null, CONFIRM_TIMEOUT_MS).thenApply(pong -> true);
+            })
+            .handle((switched, failure) -> {
+                boolean confirmed = failure == null && switched;
+                if (!confirmed) {
+                    transport.switchMode(ScannerTransport.TEXT_BAUD_RATE, null);
+                }
+                binary = confirmed;
+                return confirmed;
+            });
+        return negotiation;
+    }
+
+    public boolean open() {
+        return transport.open(this::onLine);
+    }
+
+    public boolean isOpen() {
+        return transport.isOpen();
+    }
+
+    public void send(String command) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Port " + getPortName() + " is not open");
+        }
+        byte[] bytes = (command + "\n").getBytes(StandardCharsets.US_ASCII);
+        AsyncLog.sent(getPortName(), command, !transport.isReplay());
+        transport.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void close() {
+        transport.close();
+        commands.failAll(new IOException("Port " + getPortName() + " closed"));
+    }
+
+    private void onLine(byte[] data, int offset, int length) {
+        lastActivityNanos = System.nanoTime();
+        AsyncLog.received(getPortName(), data, offset, length, !transport.isReplay());
+        dispatchLine(data, offset, length);
+    }
+
+    private void dispatchLine(byte[] data, int offset, int length) {
+        try {
+            if (SensorCommandChannel.isResponse(data, offset, length)) {
+                commands.onResponse(data, offset, length);
+                return;
+            }
+            listener.onLine(this, data, offset, length);
+        } catch (Exception e) {
+            AsyncLog.error("Error handling a line from " + getPortName(), e);
+        }
+    }
+
+    /*
+     * The capture gets the frame's raw bytes and the console its decoded
+     * form, so a replay goes through the same parser as the port did.
+     */
+    private void onFrame(int type, byte[] payload, int offset, int length) {
+        lastActivityNanos = System.nanoTime();
+        AsyncLog.frame(getPortName(), payload, offset - SensorFrameCodec.HEADER_LENGTH,
+            length + SensorFrameCodec.HEADER_LENGTH + 1, !transport.isReplay());
+        try {
+            // Command answers and free-text lines travel as text inside frames.
+            if (type == SensorFrameCodec.TYPE_RESPONSE || type == SensorFrameCodec.TYPE_TEXT) {
+                AsyncLog.received(getPortName(), payload, offset, length, false);
+                dispatchLine(payload, offset, length);
+            } else {
+                SensorEvent event = SensorFrameCodec.eventOf(type);
+                int value = SensorFrameCodec.valueOf(payload, offset, length);
+                AsyncLog.event(getPortName(), event == null ? "frame type " + type : event, value);
+                listener.onEvent(this, event == null ? SensorEvent.UNKNOWN : event, value);
+            }
+        } catch (Exception e) {
+            AsyncLog.error("Error handling a frame from " + getPortName(), e);
+        }
+    }
+}
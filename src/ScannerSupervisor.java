@@ -0,0 +1,271 @@
+import com.fazecast.jSerialComm.SerialPort;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Finds scanners and keeps them connected. Given port names it watches just
+ * those; given none it enumerates SerialPort.getCommPorts() and probes every
+ * port that is not already in use. A probe opens the port and waits for a line
+ * the sketch prints - normally the "Fingerprint Attendance System" banner the
+ * Arduino prints after the reset that opening the port causes - and, failing
+ * that, asks with a PING in case the board did not reset.
+ *
+ * Probes run on their own threads, so startup never waits on one port. A port
+ * that fails to open or identify is retried with exponential backoff, and a
+ * scanner that disappears (port closed by an unplug, or silent and unable to
+ * answer a PING) is closed and reconnected the same way rather than leaving a
+ * reader spinning on a dead handle.
+ */
+public class ScannerSupervisor implements Closeable {
+
+    public interface Listener {
+        /*
+         * A port was identified as a scanner; its lines now reach the decoder.
+         */
+        void sessionOpened(ScannerSession session);
+
+        void sessionLost(ScannerSession session);
+
+        void statusChanged(String message);
+    }
+
+    private static final long TICK_MS = 1000;
+    private static final long BANNER_TIMEOUT_MS = 3000;
+    private static final long PING_TIMEOUT_MS = 2000;
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+    // Ports that never identified are somebody else's device; leave them be.
+    private static final long MAX_FOREIGN_BACKOFF_MS = 300_000;
+    private static final long IDLE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private static final class Port {
+        final String name;
+        final boolean named;
+        int scannerID = -1;
+        ScannerSession session;
+        boolean probing;
+        boolean checking;
+        boolean everConnected;
+        int failures;
+        long nextAttemptNanos = System.nanoTime();
+
+        Port(String name, boolean named) {
+            this.name = name;
+            this.named = named;
+        }
+    }
+
+    /*
+     * Holds a probed port's lines back from the decoder until one of them
+     * shows the sketch is on the other end.
+     */
+    private final class ProbeListener implements ScannerSession.LineListener {
+        final CountDownLatch identified = new CountDownLatch(1);
+
+        @Override
+        public void onLine(ScannerSession session, byte[] data, int offset, int length) {
+            if (identified.getCount() > 0) {
+                if (SensorProtocolDecoder.eventOf(decoder.decode(data, offset, length)) == SensorEvent.UNKNOWN) {
+                    return;
+                }
+                identified.countDown();
+            }
+            decoder.onLine(session, data, offset, length);
+        }
+
+        @Override
+        public void onEvent(ScannerSession session, SensorEvent event, int value) {
+            decoder.onEvent(session, event, value);
+        }
+    }
+
+    private final SensorProtocolDecoder decoder;
+    private final Listener listener;
+    private final Map<String, Port> ports = new LinkedHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "scanner-supervisor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService probes = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "scanner-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean discover;
+    private int nextScannerID;
+    private volatile boolean closed;
+
+    public ScannerSupervisor(SensorProtocolDecoder decoder, Listener listener) {
+        this.decoder = decoder;
+        this.listener = listener;
+    }
+
+    /*
+     * Watches the given ports, or every serial port if the list is empty.
+     * Returns at once; scanners connect in the background.
+     */
+    public synchronized void start(List<String> portNames) {
+        discover = portNames.isEmpty();
+        for (String portName : portNames) {
+            Port port = new Port(portName, true);
+            port.scannerID = nextScannerID++;
+            ports.put(portName, port);
+        }
+        listener.statusChanged(discover ? "Searching for scanners..." : "Connecting to " + String.join(", ", portNames) + "...");
+        ticker.scheduleWithFixedDelay(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized List<ScannerSession> sessions() {
+        List<ScannerSession> sessions = new ArrayList<>();
+        for (Port port : ports.values()) {
+            if (port.session != null) {
+                sessions.add(port.session);
+            }
+        }
+        return sessions;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        ticker.shutdownNow();
+        probes.shutdownNow();
+        for (ScannerSession session : sessions()) {
+            session.close();
+        }
+    }
+
+    private void tick() {
+        try {
+            List<ScannerSession> lost = new ArrayList<>();
+            synchronized (this) {
+                long now = System.nanoTime();
+                List<String> present = discover ? enumeratePorts() : null;
+                for (Port port : ports.values()) {
+                    if (port.session != null && !port.session.isOpen()) {
+                        lost.add(port.session);
+                        port.session = null;
+                        port.failures = 0;
+                        port.nextAttemptNanos = now + TimeUnit.MILLISECONDS.toNanos(MIN_BACKOFF_MS);
+                    }
+                }
+                for (Port port : ports.values()) {
+                    if (port.session != null) {
+                        checkIdle(port, now);
+                    } else if (!port.probing && now - port.nextAttemptNanos >= 0
+                            && (present == null || present.contains(port.name))) {
+                        port.probing = true;
+                        if (port.scannerID < 0) {
+                            port.scannerID = nextScannerID++;
+                        }
+                        probes.execute(() -> probe(port));
+                    }
+                }
+            }
+            for (ScannerSession session : lost) {
+                session.close();
+                listener.sessionLost(session);
+                listener.statusChanged("Lost scanner on " + session.getPortName() + "; reconnecting...");
+            }
+        } catch (Exception e) {
+            AsyncLog.error("Scanner supervisor check failed", e);
+        }
+    }
+
+    /*
+     * Adds newly attached ports and returns the names of all present ones.
+     */
+    private List<String> enumeratePorts() {
+        List<String> present = new ArrayList<>();
+        for (SerialPort serialPort : SerialPort.getCommPorts()) {
+            String name = serialPort.getSystemPortName();
+            present.add(name);
+            ports.computeIfAbsent(name, key -> new Port(key, false));
+        }
+        return present;
+    }
+
+    /*
+     * A scanner that has said nothing for a while is asked for a PING; no
+     * answer means the link is dead even if the OS still reports the port
+     * open (or the board reset into text mode behind a binary session).
+     * Skipped mid-scan: the sketch does not read commands while enrolling.
+     */
+    private void checkIdle(Port port, long now) {
+        ScannerSession session = port.session;
+        if (port.checking || session.getScanState() != ScanStateMachine.State.IDLE || now - session.getLastActivityNanos() < IDLE_CHECK_NANOS) {
+            return;
+        }
+        port.checking = true;
+        session.getCommands().request("PING", null, PING_TIMEOUT_MS).whenComplete((pong, failure) -> {
+            synchronized (this) {
+                port.checking = false;
+            }
+            if (failure != null && !closed) {
+                AsyncLog.info("Scanner on " + session.getPortName() + " stopped answering; closing it");
+                session.close();
+            }
+        });
+    }
+
+    private void probe(Port port) {
+        ProbeListener probeListener = new ProbeListener();
+        ScannerSession session = new ScannerSession(ScannerTransport.forName(port.name), port.scannerID, probeListener);
+        boolean identified = false;
+        try {
+            if (session.open()) {
+                identified = probeListener.identified.await(BANNER_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    || ping(session);
+                probeListener.identified.countDown();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            AsyncLog.error("Error opening a scanner", e);
+        }
+        if (!identified || closed) {
+            session.close();
+        }
+
+        synchronized (this) {
+            port.probing = false;
+            if (closed) {
+                return;
+            }
+            if (identified) {
+                port.session = session;
+                port.failures = 0;
+                port.everConnected = true;
+            } else {
+                port.failures++;
+                long maxBackoff = port.named || port.everConnected ? MAX_BACKOFF_MS : MAX_FOREIGN_BACKOFF_MS;
+                long backoff = Math.min(maxBackoff, MIN_BACKOFF_MS << Math.min(port.failures - 1, 16));
+                port.nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                if (port.named || port.everConnected) {
+                    listener.statusChanged("No scanner on " + port.name + "; retrying in " + backoff / 1000 + "s");
+                }
+                return;
+            }
+        }
+        listener.sessionOpened(session);
+    }
+
+    private boolean ping(ScannerSession session) throws InterruptedException {
+        try {
+            session.getCommands().request("PING", null, PING_TIMEOUT_MS).get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+ * Byte link between the host and one scanner. The serial implementation wraps
+ * jSerialComm; SimulatedScanner emits the firmware's line protocol in-process
+ * so the scan path can be exercised and measured without hardware.
+ */
+public interface ScannerTransport extends Closeable {
+    String SIMULATOR_PREFIX = "sim";
+    int TEXT_BAUD_RATE = 9600;
+
+    String getName();
+
+    boolean open(SerialLineFramer.LineHandler handler);
+
+    boolean isOpen();
+
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    @Override
+    void close();
+
+    /*
+     * Moves the link to another baud rate and, given a parser, from text
+     * lines to SensorFrameCodec frames (null goes back to lines). Returns
+     * false if this transport cannot switch.
+     */
+    default boolean switchMode(int baudRate, SensorFrameCodec.Parser frames) {
+        return false;
+    }
+
+    /*
+     * Lines the transport's SerialLineFramer dropped for not fitting it.
+     */
+    default long getOverflowedLines() {
+        return 0;
+    }
+
+    /*
+     * The clocks scans are stamped and de-duplicated by. A replay answers
+     * with the time the line being replayed was captured, so it reproduces
+     * the original timestamps however fast it runs.
+     */
+    default long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    default long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /*
+     * A replay is not captured again, and waits for the scan pipeline rather
+     * than have scans dropped.
+     */
+    default boolean isReplay() {
+        return false;
+    }
+
+    /*
+     * "COM7" or "/dev/ttyACM0" opens a serial port; "sim" or
+     * "sim:<scans per second>:<roster size>[:<capacity>[:<seed>]]" starts a
+     * simulated scanner (give several the same rate and roster different
+     * seeds, or they scan the same fingerprints in the same order); "replay:<capture file>[@<port>]" plays back a serial capture.
+     */
+    static ScannerTransport forName(String name) {
+        if (name.startsWith(ReplayTransport.PREFIX)) {
+            return new ReplayTransport(name);
+        }
+        if (name.equals(SIMULATOR_PREFIX) || name.startsWith(SIMULATOR_PREFIX + ":")) {
+            String[] parts = name.split(":");
+            double scansPerSecond = parts.length > 1 ? Double.parseDouble(parts[1]) : 1.0;
+            int rosterSize = parts.length > 2 ? Integer.parseInt(parts[2]) : 20;
+            int capacity = parts.length > 3 ? Integer.parseInt(parts[3]) : SimulatedScanner.DEFAULT_CAPACITY;
+            long seed = parts.length > 4 ? Long.parseLong(parts[4]) : 42L;
+            return new SimulatedScanner(name, rosterSize, scansPerSecond, capacity, seed);
+        }
+        return new SerialPortTransport(name);
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Host-to-sensor commands for one scanner session. A command goes out as
+ *
+ *   @<id> <VERB> [argument]
+ *
+ * and the sketch answers "@<id> OK [payload]" or "@<id> ERR <reason>" between
+ * its scan lines. Answers are matched to requests by id rather than by order,
+ * so several commands can be outstanding while scans keep streaming, and a
+ * command that is not answered within its timeout fails with a
+ * TimeoutException (a late answer is then dropped).
+ *
+ * The sketch's serial receive buffer is 64 bytes, so no more than
+ * MAX_IN_FLIGHT commands are written ahead of their answers; later ones queue
+ * here until a slot frees up.
+ */
+public class SensorCommandChannel {
+    public static final long DEFAULT_TIMEOUT_MS = 10_000;
+
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sensor-command-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /*
+     * The sketch answered ERR.
+     */
+    public static class CommandFailedException extends IOException {
+        private static final long serialVersionUID = -4868088393803039451L;
+
+        public CommandFailedException(String message) {
+            super(message);
+        }
+    }
+
+    public static final class SensorInfo {
+        public static final int UNNUMBERED = -1;
+
+        public final int number;
+        public final int capacity;
+
+        SensorInfo(int number, int capacity) {
+            this.number = number;
+            this.capacity = capacity;
+        }
+    }
+
+    private static final class Command {
+        final int id;
+        final String line;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        volatile ScheduledFuture<?> timeout;
+
+        Command(int id, String line) {
+            this.id = id;
+            this.line = line;
+        }
+    }
+
+    private final ScannerSession session;
+    private final Map<Integer, Command> inFlight = new HashMap<>();
+    private final ArrayDeque<Command> queued = new ArrayDeque<>();
+    private int nextID = 1;
+
+    public SensorCommandChannel(ScannerSession session) {
+        this.session = session;
+    }
+
+    public CompletableFuture<Integer> templateCount() {
+        return request("COUNT", null, DEFAULT_TIMEOUT_MS).thenApply(payload -> Integer.parseInt(payload.trim()));
+    }
+
+    public CompletableFuture<Void> deleteTemplate(int slot) {
+        return request("DELETE", Integer.toString(slot), DEFAULT_TIMEOUT_MS).thenApply(payload -> null);
+    }
+
+    /*
+     * Bit n is set if template slot n holds a fingerprint. The sketch sends
+     * the bitmap as hex bytes, slots 0-7 in the first byte, low bit first.
+     */
+    public CompletableFuture<BitSet> occupiedSlots() {
+        return request("LIST", null, DEFAULT_TIMEOUT_MS).thenApply(SensorCommandChannel::parseBitmap);
+    }
+
+    /*
+     * The same bitmap for slots 0 .. capacity. "LIST <first>" answers for the
+     * slots from first that its hex digits cover - 32 on the current sketch,
+     * 128 on older ones - and the sketch looks for a finger between answers,
+     * so the pages are asked for one after another rather than all at once.
+     */
+    public CompletableFuture<BitSet> occupiedSlots(int capacity) {
+        return occupiedSlots(0, capacity, new BitSet(capacity + 1));
+    }
+
+    private CompletableFuture<BitSet> occupiedSlots(int first, int capacity, BitSet occupied) {
+        if (first > capacity) {
+            return CompletableFuture.completedFuture(occupied);
+        }
+        return request("LIST", Integer.toString(first), DEFAULT_TIMEOUT_MS).thenCompose(payload -> {
+            int slots = payload.trim().length() / 2 * 8;
+            if (slots == 0) {
+                throw new IllegalStateException("empty LIST answer for slot " + first);
+            }
+            BitSet page = parseBitmap(payload);
+            for (int slot = page.nextSetBit(0); slot >= 0; slot = page.nextSetBit(slot + 1)) {
+                occupied.set(first + slot);
+            }
+            return occupiedSlots(first + slots, capacity, occupied);
+        });
+    }
+
+    /*
+     * Reads the sensor's number and template capacity, first storing number
+     * in the sensor if it is not null. Sketches that predate SENSOR answer
+     * ERR UNKNOWN.
+     */
+    public CompletableFuture<SensorInfo> sensorInfo(Integer number) {
+        return request("SENSOR", number == null ? null : number.toString(), DEFAULT_TIMEOUT_MS).thenApply(payload -> {
+            String[] fields = payload.trim().split(" ");
+            return new SensorInfo("NONE".equals(fields[0]) ? SensorInfo.UNNUMBERED : Integer.parseInt(fields[0]),
+                Integer.parseInt(fields[1]));
+        });
+    }
+
+    /*
+     * Tells the sketch which slot the next enrollment goes into; 0 means none
+     * is free. From the first NEXT on, the sketch stops picking slots itself.
+     */
+    public CompletableFuture<Void> nextSlot(int slot) {
+        return request("NEXT", Integer.toString(slot), DEFAULT_TIMEOUT_MS).thenApply(payload -> null);
+    }
+
+    public CompletableFuture<Void> clear() {
+        return request("CLEAR", null, DEFAULT_TIMEOUT_MS).thenApply(payload -> null);
+    }
+
+    /*
+     * Sends one command and returns its payload once answered. The returned
+     * future completes on the session's reader thread, or on the timeout
+     * thread if the sketch does not answer in time.
+     */
+    public CompletableFuture<String> request(String verb, String argument, long timeoutMillis) {
+        Command command;
+        boolean send;
+        synchronized (this) {
+            int id = nextID;
+            nextID = nextID == Integer.MAX_VALUE ? 1 : nextID + 1;
+            command = new Command(id, "@" + id + " " + verb + (argument == null ? "" : " " + argument));
+            send = inFlight.size() < MAX_IN_FLIGHT;
+            if (send) {
+                inFlight.put(id, command);
+            } else {
+                queued.add(command);
+            }
+        }
+        command.timeout = TIMEOUTS.schedule(() -> expire(command), timeoutMillis, TimeUnit.MILLISECONDS);
+        if (send) {
+            write(command);
+        }
+        return command.result;
+    }
+
+    public static boolean isResponse(byte[] data, int offset, int length) {
+        return length > 0 && data[offset] == '@';
+    }
+
+    /*
+     * Called from the session's reader thread with an "@<id> ..." line.
+     */
+    public void onResponse(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int at = offset + 1;
+        int id = 0;
+        while (at < end && data[at] >= '0' && data[at] <= '9') {
+            id = id * 10 + (data[at++] - '0');
+        }
+        while (at < end && data[at] == ' ') {
+            at++;
+        }
+        int statusStart = at;
+        while (at < end && data[at] != ' ') {
+            at++;
+        }
+        String status = new String(data, statusStart, at - statusStart, StandardCharsets.US_ASCII);
+        String payload = at < end ? new String(data, at + 1, end - at - 1, StandardCharsets.US_ASCII) : "";
+
+        Command command;
+        synchronized (this) {
+            command = inFlight.remove(id);
+        }
+        if (command == null) {
+            AsyncLog.info("Discarding response to unknown or expired command " + id + " on " + session.getPortName());
+            return;
+        }
+        cancelTimeout(command);
+        if ("OK".equals(status)) {
+            command.result.complete(payload);
+        } else {
+            command.result.completeExceptionally(new CommandFailedException(
+                command.line.substring(command.line.indexOf(' ') + 1) + " failed: " + payload));
+        }
+        sendQueued();
+    }
+
+    /*
+     * Fails everything outstanding, e.g. when the port closes.
+     */
+    public void failAll(IOException cause) {
+        List<Command> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(inFlight.values());
+            failed.addAll(queued);
+            inFlight.clear();
+            queued.clear();
+        }
+        for (Command command : failed) {
+            cancelTimeout(command);
+            command.result.completeExceptionally(cause);
+        }
+    }
+
+    /*
+     * A readable reason for a failed command, for status lines and dialogs.
+     */
+    public static String describe(Throwable failure) {
+        while (failure.getCause() != null && !(failure instanceof IOException)) {
+            failure = failure.getCause();
+        }
+        return failure instanceof TimeoutException ? "no response from sensor" : failure.getMessage();
+    }
+
+    private void expire(Command command) {
+        synchronized (this) {
+            if (inFlight.remove(command.id) == null && !queued.remove(command)) {
+                return;
+            }
+        }
+        command.result.completeExceptionally(new TimeoutException());
+        sendQueued();
+    }
+
+    private void sendQueued() {
+        while (true) {
+            Command command;
+            synchronized (this) {
+                if (queued.isEmpty() || inFlight.size() >= MAX_IN_FLIGHT) {
+                    return;
+                }
+                command = queued.poll();
+                inFlight.put(command.id, command);
+            }
+            write(command);
+        }
+    }
+
+    /*
+     * The command is registered before it is written, so an answer arriving
+     * immediately still finds it.
+     */
+    private void write(Command command) {
+        try {
+            session.send(command.line);
+        } catch (IOException e) {
+            synchronized (this) {
+                inFlight.remove(command.id);
+            }
+            cancelTimeout(command);
+            command.result.completeExceptionally(e);
+            sendQueued();
+        }
+    }
+
+    /*
+     * Another thread can send and complete a queued command before its
+     * timeout has been scheduled.
+     */
+    private static void cancelTimeout(Command command) {
+        ScheduledFuture<?> timeout = command.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+
+    private static BitSet parseBitmap(String payload) {
+        String hex = payload.trim();
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return BitSet.valueOf(bytes);
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Every line fingerprintScan.ino prints, as a type. Events that carry a number
+ * (an ID, a template count, an ok flag) deliver it alongside as a plain int.
+ */
+public enum SensorEvent {
+    SENSOR_BANNER,
+    SENSOR_READY,
+    SENSOR_MISSING,
+    TEMPLATE_COUNT,
+    WAITING_FOR_FINGER,
+    IMAGE_TAKEN,
+    MATCH,
+    NEW_ID,
+    ENROLL_STARTED,
+    ENROLLING_ID,
+    REMOVE_FINGER,
+    PLACE_AGAIN,
+    ENROLLED,
+    ENROLL_FAILED,
+    SENSOR_FULL,
+    CLEAR_STARTED,
+    CLEAR_ACK,
+    DEVICE_ERROR,
+    INFO,
+    UNKNOWN
+}
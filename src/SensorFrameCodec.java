@@ -0,0 +1,192 @@
+/*
+ * Compact binary form of the sketch's output, negotiated per session in place
+ * of the text lines (see ScannerSession.negotiateBinary). A frame is
+ *
+ *   0xA5  length  type  payload[length - 1]  crc8
+ *
+ * where length counts the type byte and payload, and the CRC-8 (polynomial
+ * 0x07) covers length, type and payload. Events that carry a number send it as
+ * a little-endian int16, so a match is "image taken", "match n" and "new id n"
+ * in 16 bytes instead of about 40. TEXT frames carry a line the host decodes
+ * as text (device errors); RESPONSE frames carry a command answer,
+ * "@<id> OK ...".
+ *
+ * The type codes are shared with fingerprintScan.ino.
+ */
+public final class SensorFrameCodec {
+
+    public interface FrameHandler {
+        /*
+         * The payload lies inside the frame as received: HEADER_LENGTH bytes
+         * of sync, length and type before offset, and the CRC after it.
+         */
+        void onFrame(int type, byte[] payload, int offset, int length);
+    }
+
+    public static final int SYNC = 0xA5;
+    public static final int MAX_LENGTH = 255;
+    public static final int HEADER_LENGTH = 3;
+    public static final int MAX_FRAME_BYTES = MAX_LENGTH + HEADER_LENGTH;
+
+    public static final int TYPE_IMAGE_TAKEN = 0x01;
+    public static final int TYPE_MATCH = 0x02;
+    public static final int TYPE_NEW_ID = 0x03;
+    public static final int TYPE_ENROLL_STARTED = 0x04;
+    public static final int TYPE_ENROLLING_ID = 0x05;
+    public static final int TYPE_REMOVE_FINGER = 0x06;
+    public static final int TYPE_PLACE_AGAIN = 0x07;
+    public static final int TYPE_ENROLLED = 0x08;
+    public static final int TYPE_ENROLL_FAILED = 0x09;
+    public static final int TYPE_SENSOR_FULL = 0x0A;
+    public static final int TYPE_WAITING_FOR_FINGER = 0x0B;
+    public static final int TYPE_TEMPLATE_COUNT = 0x0C;
+    public static final int TYPE_CLEAR_STARTED = 0x0D;
+    public static final int TYPE_CLEAR_ACK = 0x0E;
+    public static final int TYPE_TEXT = 0x7E;
+    public static final int TYPE_RESPONSE = 0x7F;
+
+    private static final SensorEvent[] EVENTS_BY_TYPE = new SensorEvent[128];
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        EVENTS_BY_TYPE[TYPE_IMAGE_TAKEN] = SensorEvent.IMAGE_TAKEN;
+        EVENTS_BY_TYPE[TYPE_MATCH] = SensorEvent.MATCH;
+        EVENTS_BY_TYPE[TYPE_NEW_ID] = SensorEvent.NEW_ID;
+        EVENTS_BY_TYPE[TYPE_ENROLL_STARTED] = SensorEvent.ENROLL_STARTED;
+        EVENTS_BY_TYPE[TYPE_ENROLLING_ID] = SensorEvent.ENROLLING_ID;
+        EVENTS_BY_TYPE[TYPE_REMOVE_FINGER] = SensorEvent.REMOVE_FINGER;
+        EVENTS_BY_TYPE[TYPE_PLACE_AGAIN] = SensorEvent.PLACE_AGAIN;
+        EVENTS_BY_TYPE[TYPE_ENROLLED] = SensorEvent.ENROLLED;
+        EVENTS_BY_TYPE[TYPE_ENROLL_FAILED] = SensorEvent.ENROLL_FAILED;
+        EVENTS_BY_TYPE[TYPE_SENSOR_FULL] = SensorEvent.SENSOR_FULL;
+        EVENTS_BY_TYPE[TYPE_WAITING_FOR_FINGER] = SensorEvent.WAITING_FOR_FINGER;
+        EVENTS_BY_TYPE[TYPE_TEMPLATE_COUNT] = SensorEvent.TEMPLATE_COUNT;
+        EVENTS_BY_TYPE[TYPE_CLEAR_STARTED] = SensorEvent.CLEAR_STARTED;
+        EVENTS_BY_TYPE[TYPE_CLEAR_ACK] = SensorEvent.CLEAR_ACK;
+
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private SensorFrameCodec() {
+    }
+
+    /*
+     * The event a frame type stands for, or null for TEXT, RESPONSE and
+     * unknown types.
+     */
+    public static SensorEvent eventOf(int type) {
+        return type >= 0 && type < EVENTS_BY_TYPE.length ? EVENTS_BY_TYPE[type] : null;
+    }
+
+    /*
+     * The int16 value of an event frame, or SensorProtocolDecoder.NO_VALUE if
+     * it has none.
+     */
+    public static int valueOf(byte[] payload, int offset, int length) {
+        if (length < 2) {
+            return length == 1 ? payload[offset] & 0xFF : SensorProtocolDecoder.NO_VALUE;
+        }
+        return (short) ((payload[offset] & 0xFF) | (payload[offset + 1] << 8));
+    }
+
+    public static int crc8(int crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = CRC_TABLE[(crc ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /*
+     * Writes one frame into out at offset and returns its size.
+     */
+    public static int encode(int type, byte[] payload, int payloadLength, byte[] out, int offset) {
+        if (payloadLength + 1 > MAX_LENGTH) {
+            throw new IllegalArgumentException("Frame payload too long: " + payloadLength);
+        }
+        out[offset] = (byte) SYNC;
+        out[offset + 1] = (byte) (payloadLength + 1);
+        out[offset + 2] = (byte) type;
+        if (payloadLength > 0) {
+            System.arraycopy(payload, 0, out, offset + 3, payloadLength);
+        }
+        out[offset + 3 + payloadLength] = (byte) crc8(0, out, offset + 1, payloadLength + 2);
+        return payloadLength + 4;
+    }
+
+    /*
+     * Reassembles frames from a byte stream fed in arbitrary pieces. A frame
+     * whose CRC does not match is counted and dropped, and the parser hunts
+     * for the next sync byte inside the bytes it already has, so one
+     * corrupted byte costs only the frame it hit. (A corrupted length byte
+     * holds the frames behind it back until the bogus frame fails its CRC;
+     * they are then replayed, not lost.)
+     */
+    public static final class Parser {
+        private final FrameHandler handler;
+        private final byte[] frame = new byte[MAX_FRAME_BYTES];
+        private int size;
+        // Written by the reader thread only, read by ScanMetrics.
+        private volatile long corruptFrames;
+
+        public Parser(FrameHandler handler) {
+            this.handler = handler;
+        }
+
+        public long getCorruptFrames() {
+            return corruptFrames;
+        }
+
+        public void feed(byte[] data, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                push(data[i]);
+            }
+        }
+
+        private void push(byte b) {
+            if (size == 0 && (b & 0xFF) != SYNC) {
+                return;
+            }
+            frame[size++] = b;
+            if (size == 2 && frame[1] == 0) {
+                resync(1);
+                return;
+            }
+            if (size < 2 || size < (frame[1] & 0xFF) + 3) {
+                return;
+            }
+            int length = frame[1] & 0xFF;
+            if (crc8(0, frame, 1, length + 1) == (frame[length + 2] & 0xFF)) {
+                size = 0;
+                handler.onFrame(frame[2] & 0xFF, frame, 3, length - 1);
+            } else {
+                corruptFrames++;
+                AsyncLog.info("Dropped corrupt sensor frame (type " + (frame[2] & 0xFF) + ")");
+                resync(1);
+            }
+        }
+
+        /*
+         * Drops the frame start at 0 and restarts from the next sync byte at
+         * or after from, replaying what follows it.
+         */
+        private void resync(int from) {
+            int next = from;
+            while (next < size && (frame[next] & 0xFF) != SYNC) {
+                next++;
+            }
+            int remaining = size - next;
+            byte[] replay = new byte[remaining];
+            System.arraycopy(frame, next, replay, 0, remaining);
+            size = 0;
+            for (byte b : replay) {
+                push(b);
+            }
+        }
+    }
+}
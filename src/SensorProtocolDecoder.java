@@ -0,0 +1,180 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Maps firmware lines to SensorEvents and dispatches them to registered
+ * handlers. Rules are bucketed by first byte and matched as byte prefixes, and
+ * a trailing number is parsed in place, so decoding neither allocates nor
+ * scans the line more than once. Lines no rule recognises are counted as
+ * UNKNOWN instead of being dropped silently. One decoder can be shared by all
+ * scanner sessions. Sessions in binary mode hand over events already decoded
+ * from frames, which take the same handlers and counters.
+ */
+public class SensorProtocolDecoder implements ScannerSession.LineListener {
+
+    public interface EventHandler {
+        void onEvent(ScannerSession session, SensorEvent event, int value);
+    }
+
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private static final SensorEvent[] EVENTS = SensorEvent.values();
+
+    private static final class Rule {
+        final byte[] prefix;
+        final SensorEvent event;
+        final boolean numeric;
+        final int value;
+
+        Rule(String prefix, SensorEvent event, boolean numeric, int value) {
+            this.prefix = prefix.getBytes(StandardCharsets.US_ASCII);
+            this.event = event;
+            this.numeric = numeric;
+            this.value = value;
+        }
+    }
+
+    private final Rule[][] rulesByFirstByte = new Rule[128][];
+    private final EventHandler[] handlers = new EventHandler[EVENTS.length];
+    private final LongAdder[] counters = new LongAdder[EVENTS.length];
+
+    public SensorProtocolDecoder() {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule("Fingerprint Attendance System", SensorEvent.SENSOR_BANNER, false, NO_VALUE));
+        rules.add(new Rule("Found fingerprint sensor!", SensorEvent.SENSOR_READY, false, NO_VALUE));
+        rules.add(new Rule("Did not find fingerprint sensor", SensorEvent.SENSOR_MISSING, false, NO_VALUE));
+        rules.add(new Rule("Sensor contains ", SensorEvent.TEMPLATE_COUNT, true, NO_VALUE));
+        rules.add(new Rule("Sensor full!", SensorEvent.SENSOR_FULL, false, NO_VALUE));
+        rules.add(new Rule("Waiting for valid finger", SensorEvent.WAITING_FOR_FINGER, false, NO_VALUE));
+        rules.add(new Rule("Image taken", SensorEvent.IMAGE_TAKEN, false, NO_VALUE));
+        rules.add(new Rule("Found ID #", SensorEvent.MATCH, true, NO_VALUE));
+        rules.add(new Rule("NewID:", SensorEvent.NEW_ID, true, NO_VALUE));
+        rules.add(new Rule("Fingerprint not found - enrolling", SensorEvent.ENROLL_STARTED, false, NO_VALUE));
+        rules.add(new Rule("Enrolling ID #", SensorEvent.ENROLLING_ID, true, NO_VALUE));
+        rules.add(new Rule("Remove finger", SensorEvent.REMOVE_FINGER, false, NO_VALUE));
+        rules.add(new Rule("Place same finger again", SensorEvent.PLACE_AGAIN, false, NO_VALUE));
+        rules.add(new Rule("Enrollment successful!", SensorEvent.ENROLLED, false, NO_VALUE));
+        rules.add(new Rule("Enrollment failed", SensorEvent.ENROLL_FAILED, false, NO_VALUE));
+        rules.add(new Rule("Clearing sensor fingerprint database", SensorEvent.CLEAR_STARTED, false, NO_VALUE));
+        rules.add(new Rule("ClearFP:OK", SensorEvent.CLEAR_ACK, false, 1));
+        rules.add(new Rule("ClearFP:FAIL", SensorEvent.CLEAR_ACK, false, 0));
+        rules.add(new Rule("All fingerprints deleted!", SensorEvent.INFO, false, NO_VALUE));
+        rules.add(new Rule("Failed to clear fingerprints.", SensorEvent.INFO, false, NO_VALUE));
+        rules.add(new Rule("Error ", SensorEvent.DEVICE_ERROR, false, NO_VALUE));
+        rules.add(new Rule("Communication error", SensorEvent.DEVICE_ERROR, false, NO_VALUE));
+
+        // Longer prefixes first so that e.g. "Found ID #" never shadows a longer rule.
+        rules.sort((a, b) -> b.prefix.length - a.prefix.length);
+        for (Rule rule : rules) {
+            int first = rule.prefix[0];
+            Rule[] bucket = rulesByFirstByte[first];
+            Rule[] grown = bucket == null ? new Rule[1] : Arrays.copyOf(bucket, bucket.length + 1);
+            grown[grown.length - 1] = rule;
+            rulesByFirstByte[first] = grown;
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+    }
+
+    public void on(SensorEvent event, EventHandler handler) {
+        handlers[event.ordinal()] = handler;
+    }
+
+    @Override
+    public void onLine(ScannerSession session, byte[] data, int offset, int length) {
+        dispatch(session, data, offset, length);
+    }
+
+    @Override
+    public void onEvent(ScannerSession session, SensorEvent event, int value) {
+        dispatch(session, event, value);
+    }
+
+    public SensorEvent dispatch(ScannerSession session, byte[] data, int offset, int length) {
+        long decoded = decode(data, offset, length);
+        return dispatch(session, eventOf(decoded), valueOf(decoded));
+    }
+
+    public SensorEvent dispatch(ScannerSession session, SensorEvent event, int value) {
+        counters[event.ordinal()].increment();
+        EventHandler handler = handlers[event.ordinal()];
+        if (handler != null) {
+            handler.onEvent(session, event, value);
+        }
+        return event;
+    }
+
+    public long getCount(SensorEvent event) {
+        return counters[event.ordinal()].sum();
+    }
+
+    /*
+     * Returns the event ordinal in the high word and its value in the low
+     * word; see eventOf and valueOf.
+     */
+    public long decode(byte[] data, int offset, int length) {
+        if (length > 0) {
+            int first = data[offset];
+            Rule[] bucket = first >= 0 ? rulesByFirstByte[first] : null;
+            if (bucket != null) {
+                for (Rule rule : bucket) {
+                    if (startsWith(data, offset, length, rule.prefix)) {
+                        int value = rule.value;
+                        if (rule.numeric) {
+                            value = parseInt(data, offset + rule.prefix.length, offset + length);
+                            if (value == NO_VALUE) {
+                                break;
+                            }
+                        }
+                        return pack(rule.event, value);
+                    }
+                }
+            }
+        }
+        return pack(SensorEvent.UNKNOWN, NO_VALUE);
+    }
+
+    public static SensorEvent eventOf(long decoded) {
+        return EVENTS[(int) (decoded >>> 32)];
+    }
+
+    public static int valueOf(long decoded) {
+        return (int) decoded;
+    }
+
+    private static long pack(SensorEvent event, int value) {
+        return ((long) event.ordinal() << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 1; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseInt(byte[] data, int from, int to) {
+        boolean negative = from < to && data[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i >= to || data[i] < '0' || data[i] > '9') {
+            return NO_VALUE;
+        }
+        long value = 0;
+        while (i < to && data[i] >= '0' && data[i] <= '9') {
+            value = value * 10 + (data[i++] - '0');
+            if (value > Integer.MAX_VALUE) {
+                return NO_VALUE;
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+}
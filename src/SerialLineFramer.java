@@ -0,0 +1,165 @@
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
+
+/*
+ * Splits the serial byte stream into lines. Bytes are read straight into a
+ * fixed ring buffer and each completed line is handed to the handler as a
+ * (buffer, offset, length) view with surrounding whitespace already trimmed.
+ * Only a line that wraps around the end of the ring is copied, into a reused
+ * scratch array, so steady-state framing allocates nothing.
+ *
+ * Once a session has negotiated the binary protocol, setFrameParser switches
+ * the same reader over to SensorFrameCodec frames.
+ */
+public class SerialLineFramer implements SerialPortDataListener {
+
+    public interface LineHandler {
+        void onLine(byte[] data, int offset, int length);
+    }
+
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private final SerialPort port;
+    private final LineHandler handler;
+    private final byte[] ring;
+    private final byte[] scratch;
+    private final int mask;
+    private long head;
+    private long scanned;
+    private long tail;
+    private long overflowedLines;
+    private boolean discarding;
+    private volatile SensorFrameCodec.Parser frameParser;
+
+    public SerialLineFramer(SerialPort port, LineHandler handler) {
+        this(port, handler, DEFAULT_CAPACITY);
+    }
+
+    public SerialLineFramer(SerialPort port, LineHandler handler, int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.port = port;
+        this.handler = handler;
+        this.ring = new byte[capacity];
+        this.scratch = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    @Override
+    public int getListeningEvents() {
+        return SerialPort.LISTENING_EVENT_DATA_AVAILABLE | SerialPort.LISTENING_EVENT_PORT_DISCONNECTED;
+    }
+
+    @Override
+    public void serialEvent(SerialPortEvent event) {
+        if (event.getEventType() == SerialPort.LISTENING_EVENT_PORT_DISCONNECTED) {
+            // Unplugged: close the handle so the session reads as closed and
+            // the supervisor reconnects, instead of polling a dead port.
+            port.closePort();
+            return;
+        }
+        if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE) {
+            return;
+        }
+        int available;
+        while ((available = port.bytesAvailable()) > 0) {
+            makeRoom();
+            int offset = (int) (tail & mask);
+            int contiguous = Math.min(ring.length - (int) (tail - head), ring.length - offset);
+            int read = port.readBytes(ring, Math.min(available, contiguous), offset);
+            if (read <= 0) {
+                return;
+            }
+            tail += read;
+            scan();
+        }
+    }
+
+    public void feed(byte[] data, int offset, int length) {
+        while (length > 0) {
+            makeRoom();
+            int position = (int) (tail & mask);
+            int count = Math.min(length, Math.min(ring.length - (int) (tail - head), ring.length - position));
+            System.arraycopy(data, offset, ring, position, count);
+            tail += count;
+            offset += count;
+            length -= count;
+            scan();
+        }
+    }
+
+    /*
+     * null switches back to lines. Bytes already read but not yet framed
+     * under the old mode are dropped.
+     */
+    public void setFrameParser(SensorFrameCodec.Parser frameParser) {
+        this.frameParser = frameParser;
+    }
+
+    public long getOverflowedLines() {
+        return overflowedLines;
+    }
+
+    private void makeRoom() {
+        if (tail - head == ring.length) {
+            // A full buffer without a newline is not a line the firmware sends;
+            // drop it and everything up to the next newline.
+            if (!discarding) {
+                overflowedLines++;
+                discarding = true;
+            }
+            head = tail;
+            scanned = tail;
+        }
+    }
+
+    private void scan() {
+        SensorFrameCodec.Parser parser = frameParser;
+        if (parser != null) {
+            while (scanned < tail) {
+                int offset = (int) (scanned & mask);
+                int count = (int) Math.min(tail - scanned, ring.length - offset);
+                parser.feed(ring, offset, count);
+                scanned += count;
+            }
+            head = tail;
+            discarding = false;
+            return;
+        }
+        while (scanned < tail) {
+            if (ring[(int) (scanned & mask)] == '\n') {
+                if (discarding) {
+                    discarding = false;
+                } else {
+                    emit(head, scanned);
+                }
+                head = scanned + 1;
+            }
+            scanned++;
+        }
+    }
+
+    private void emit(long start, long end) {
+        while (start < end && ring[(int) (start & mask)] <= ' ') {
+            start++;
+        }
+        while (end > start && ring[(int) ((end - 1) & mask)] <= ' ') {
+            end--;
+        }
+        int length = (int) (end - start);
+        if (length == 0) {
+            return;
+        }
+        int offset = (int) (start & mask);
+        if (offset + length <= ring.length) {
+            handler.onLine(ring, offset, length);
+        } else {
+            int firstPart = ring.length - offset;
+            System.arraycopy(ring, offset, scratch, 0, firstPart);
+            System.arraycopy(ring, 0, scratch, firstPart, length - firstPart);
+            handler.onLine(scratch, 0, length);
+        }
+    }
+}
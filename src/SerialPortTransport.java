@@ -0,0 +1,70 @@
+import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortInvalidPortException;
+import java.io.IOException;
+
+public class SerialPortTransport implements ScannerTransport {
+    private final String portName;
+    private SerialPort port;
+    private SerialLineFramer framer;
+
+    public SerialPortTransport(String portName) {
+        this.portName = portName;
+    }
+
+    @Override
+    public String getName() {
+        return portName;
+    }
+
+    @Override
+    public boolean open(SerialLineFramer.LineHandler handler) {
+        try {
+            port = SerialPort.getCommPort(portName);
+        } catch (SerialPortInvalidPortException e) {
+            AsyncLog.info("No such port: " + portName);
+            return false;
+        }
+        port.setBaudRate(TEXT_BAUD_RATE);
+        port.setComPortTimeouts(SerialPort.TIMEOUT_NONBLOCKING, 0, 0);
+        if (!port.openPort()) {
+            return false;
+        }
+        framer = new SerialLineFramer(port, handler);
+        port.addDataListener(framer);
+        return true;
+    }
+
+    @Override
+    public boolean switchMode(int baudRate, SensorFrameCodec.Parser frames) {
+        if (!isOpen() || !port.setBaudRate(baudRate)) {
+            return false;
+        }
+        framer.setFrameParser(frames);
+        return true;
+    }
+
+    @Override
+    public long getOverflowedLines() {
+        return framer == null ? 0 : framer.getOverflowedLines();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return port != null && port.isOpen();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (port.writeBytes(data, length, offset) != length) {
+            throw new IOException("Short write to " + portName);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (isOpen()) {
+            port.removeDataListener();
+            port.closePort();
+        }
+    }
+}
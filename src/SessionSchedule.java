@@ -0,0 +1,87 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/*
+ * Splits the clock into attendance sessions. "daily" gives one session per
+ * local day; a list of start times such as "08:00,10:00,13:30" gives class
+ * periods, each running until the next starts (the last until midnight, and
+ * anything before the first belongs to a session starting at midnight).
+ * Set with -Dattendance.sessions=<spec>.
+ */
+public class SessionSchedule {
+    public static final String DAILY = "daily";
+
+    private static final DateTimeFormatter PERIOD_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+    public static final class Session {
+        public final String label;
+        public final long start;
+        public final long end;
+
+        Session(String label, long start, long end) {
+            this.label = label;
+            this.start = start;
+            this.end = end;
+        }
+
+        public boolean contains(long epochMillis) {
+            return epochMillis >= start && epochMillis < end;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final List<LocalTime> starts;
+
+    private SessionSchedule(List<LocalTime> starts) {
+        this.starts = starts;
+    }
+
+    public static SessionSchedule parse(String spec) {
+        TreeSet<LocalTime> starts = new TreeSet<>();
+        starts.add(LocalTime.MIDNIGHT);
+        if (!spec.trim().equalsIgnoreCase(DAILY)) {
+            for (String time : spec.split(",")) {
+                try {
+                    starts.add(LocalTime.parse(time.trim(), PERIOD_FORMAT));
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("Session start must be HH:mm: " + time.trim());
+                }
+            }
+        }
+        return new SessionSchedule(new ArrayList<>(starts));
+    }
+
+    public boolean isDaily() {
+        return starts.size() == 1;
+    }
+
+    public Session sessionAt(long epochMillis) {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime local = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone);
+        LocalDate day = local.toLocalDate();
+        LocalTime time = local.toLocalTime();
+        int index = 0;
+        while (index + 1 < starts.size() && !time.isBefore(starts.get(index + 1))) {
+            index++;
+        }
+        LocalTime from = starts.get(index);
+        long start = day.atTime(from).atZone(zone).toInstant().toEpochMilli();
+        long end = index + 1 < starts.size()
+            ? day.atTime(starts.get(index + 1)).atZone(zone).toInstant().toEpochMilli()
+            : Timestamps.startOfDay(day.plusDays(1));
+        String label = isDaily() ? day.toString() : day + " " + from.format(PERIOD_FORMAT);
+        return new Session(label, start, end);
+    }
+}
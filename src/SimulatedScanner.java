@@ -0,0 +1,395 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/*
+ * In-process stand-in for fingerprintScan.ino. It prints the same lines, in the
+ * same order, that the sketch prints over Serial, and feeds them through a
+ * SerialLineFramer exactly like bytes arriving from a real port. Scans are
+ * either generated by a background thread at a fixed rate or driven directly
+ * through scanMatch/scanEnrollment. Host commands ("@<id> COUNT" etc.) are
+ * answered like the sketch answers them, including the switch to binary
+ * frames and host-managed slots. Its capacity can be set far beyond a real
+ * sensor's, so large rosters can be simulated.
+ */
+public class SimulatedScanner implements ScannerTransport {
+    public static final int DEFAULT_CAPACITY = 1000;
+    // Slots per LIST answer, as in the sketch.
+    private static final int LIST_PAGE_SLOTS = 32;
+
+    private final String name;
+    private final int capacity;
+    private final double scansPerSecond;
+    private final SplittableRandom random;
+    private byte[] line = new byte[128];
+    private final StringBuilder command = new StringBuilder();
+    private final ArrayDeque<String> pendingCommands = new ArrayDeque<>();
+    private final BitSet slots = new BitSet();
+    private double enrollmentRatio = 0.05;
+    private int nextID;
+    private Integer sensorNumber;
+    private boolean hostManagedSlots;
+    private int enrollSlot;
+    private boolean binary;
+    private boolean emitting;
+    private int length;
+    private SerialLineFramer framer;
+    private Thread generator;
+    private volatile boolean open;
+
+    public SimulatedScanner(String name, int rosterSize, double scansPerSecond) {
+        this(name, rosterSize, scansPerSecond, DEFAULT_CAPACITY, 42L);
+    }
+
+    public SimulatedScanner(String name, int rosterSize, double scansPerSecond, int capacity, long seed) {
+        this.name = name;
+        this.capacity = Math.max(capacity, rosterSize);
+        this.slots.set(1, rosterSize + 1);
+        this.nextID = rosterSize + 1;
+        this.scansPerSecond = scansPerSecond;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public void setEnrollmentRatio(double enrollmentRatio) {
+        this.enrollmentRatio = enrollmentRatio;
+    }
+
+    public synchronized int getTemplateCount() {
+        return slots.cardinality();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getOverflowedLines() {
+        return framer == null ? 0 : framer.getOverflowedLines();
+    }
+
+    @Override
+    public boolean open(SerialLineFramer.LineHandler handler) {
+        framer = new SerialLineFramer(null, handler);
+        open = true;
+        synchronized (this) {
+            println("Fingerprint Attendance System");
+            println("Found fingerprint sensor!");
+            print("Sensor contains ");
+            print(slots.cardinality());
+            println(" templates.");
+            println("Waiting for valid finger...");
+        }
+        if (scansPerSecond > 0) {
+            generator = new Thread(this::generate, "simulated-scanner-" + name);
+            generator.setDaemon(true);
+            generator.start();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /*
+     * Answers each complete command line on the writer's thread. A command
+     * written from inside a handler of the line being emitted waits until
+     * that line is out, as it would on the wire.
+     */
+    @Override
+    public synchronized void write(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            char c = (char) data[i];
+            if (c == '\n') {
+                pendingCommands.add(command.toString());
+                command.setLength(0);
+            } else if (c != '\r') {
+                command.append(c);
+            }
+        }
+        if (!emitting) {
+            runPendingCommands();
+        }
+    }
+
+    /*
+     * There is no baud rate to change; only the framing follows.
+     */
+    @Override
+    public synchronized boolean switchMode(int baudRate, SensorFrameCodec.Parser frames) {
+        framer.setFrameParser(frames);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        if (generator != null) {
+            generator.interrupt();
+        }
+    }
+
+    public synchronized void scanRandom() {
+        int highest = slots.length() - 1;
+        if (highest < 1 || random.nextDouble() < enrollmentRatio) {
+            scanEnrollment();
+            return;
+        }
+        int fingerprintID = 1 + random.nextInt(highest);
+        if (slots.get(fingerprintID)) {
+            scanMatch(fingerprintID);
+        } else {
+            scanEnrollment();
+        }
+    }
+
+    public synchronized void scanMatch(int fingerprintID) {
+        report(SensorFrameCodec.TYPE_IMAGE_TAKEN, "Image taken");
+        report(SensorFrameCodec.TYPE_MATCH, "Found ID #", fingerprintID);
+        report(SensorFrameCodec.TYPE_NEW_ID, "NewID:", fingerprintID);
+    }
+
+    /*
+     * Returns the slot enrolled into, or -1 if there was none to use.
+     */
+    public synchronized int scanEnrollment() {
+        int id = hostManagedSlots ? enrollSlot : nextID;
+        report(SensorFrameCodec.TYPE_IMAGE_TAKEN, "Image taken");
+        report(SensorFrameCodec.TYPE_ENROLL_STARTED, "Fingerprint not found - enrolling new fingerprint...");
+        if (id < 1 || id > capacity) {
+            report(SensorFrameCodec.TYPE_SENSOR_FULL, "Sensor full! Cannot enroll more fingerprints.");
+            report(SensorFrameCodec.TYPE_ENROLL_FAILED, "Enrollment failed");
+            report(SensorFrameCodec.TYPE_NEW_ID, "NewID:", -1);
+            return -1;
+        }
+        report(SensorFrameCodec.TYPE_ENROLLING_ID, "Enrolling ID #", id);
+        report(SensorFrameCodec.TYPE_REMOVE_FINGER, "Remove finger...");
+        report(SensorFrameCodec.TYPE_PLACE_AGAIN, "Place same finger again");
+        report(SensorFrameCodec.TYPE_ENROLLED, "Enrollment successful!");
+        slots.set(id);
+        if (hostManagedSlots) {
+            enrollSlot = 0;
+        } else {
+            nextID = id + 1;
+        }
+        report(SensorFrameCodec.TYPE_NEW_ID, "NewID:", id);
+        return id;
+    }
+
+    public synchronized void scanFailedEnrollment() {
+        report(SensorFrameCodec.TYPE_IMAGE_TAKEN, "Image taken");
+        report(SensorFrameCodec.TYPE_ENROLL_STARTED, "Fingerprint not found - enrolling new fingerprint...");
+        report(SensorFrameCodec.TYPE_TEXT, "Error converting first image");
+        report(SensorFrameCodec.TYPE_ENROLL_FAILED, "Enrollment failed");
+        report(SensorFrameCodec.TYPE_NEW_ID, "NewID:", -1);
+    }
+
+    private void handleCommand(String text) {
+        if (text.equals("CLEARFP")) {
+            clearAll();
+            return;
+        }
+        if (!text.startsWith("@")) {
+            return;
+        }
+        String[] parts = text.split(" ");
+        String id = parts[0].substring(1);
+        String verb = parts.length > 1 ? parts[1] : "";
+        switch (verb) {
+            case "COUNT":
+                reply(id, "OK " + slots.cardinality());
+                break;
+            case "DELETE":
+                int slot = parts.length > 2 ? Integer.parseInt(parts[2]) : -1;
+                if (slot < 1 || slot > capacity) {
+                    reply(id, "ERR RANGE");
+                } else {
+                    slots.clear(slot);
+                    reply(id, "OK");
+                }
+                break;
+            case "LIST":
+                int first = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+                StringBuilder hex = new StringBuilder("OK ");
+                for (int b = 0; b < LIST_PAGE_SLOTS / 8; b++) {
+                    int bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        int listed = first + b * 8 + i;
+                        if (listed <= capacity && slots.get(listed)) {
+                            bits |= 1 << i;
+                        }
+                    }
+                    hex.append(Character.toUpperCase(Character.forDigit(bits >> 4, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(bits & 0xF, 16)));
+                }
+                reply(id, hex.toString());
+                break;
+            case "SENSOR":
+                if (parts.length > 2) {
+                    int number = Integer.parseInt(parts[2]);
+                    if (number < 0 || number > TemplateSlotAllocator.MAX_SENSOR_NUMBER) {
+                        reply(id, "ERR RANGE");
+                        break;
+                    }
+                    sensorNumber = number;
+                }
+                reply(id, "OK " + (sensorNumber == null ? "NONE" : sensorNumber.toString()) + " " + capacity);
+                break;
+            case "NEXT":
+                int next = parts.length > 2 ? Integer.parseInt(parts[2]) : -1;
+                if (next < 0 || next > capacity) {
+                    reply(id, "ERR RANGE");
+                } else {
+                    hostManagedSlots = true;
+                    enrollSlot = next;
+                    reply(id, "OK");
+                }
+                break;
+            case "CLEAR":
+                reply(id, clearAll() ? "OK" : "ERR CLEAR");
+                break;
+            case "PING":
+                reply(id, binary ? "OK BINARY" : "OK TEXT");
+                break;
+            case "BINARY":
+                reply(id, "OK " + (parts.length > 2 ? parts[2] : ""));
+                binary = true;
+                break;
+            default:
+                reply(id, "ERR UNKNOWN");
+                break;
+        }
+    }
+
+    private boolean clearAll() {
+        report(SensorFrameCodec.TYPE_CLEAR_STARTED, "Clearing sensor fingerprint database...");
+        slots.clear();
+        nextID = 1;
+        report(SensorFrameCodec.TYPE_TEXT, "All fingerprints deleted!");
+        if (binary) {
+            frame(SensorFrameCodec.TYPE_CLEAR_ACK, new byte[] {1}, 1);
+        } else {
+            println("ClearFP:OK");
+        }
+        return true;
+    }
+
+    private void reply(String id, String text) {
+        report(SensorFrameCodec.TYPE_RESPONSE, "@" + id + " " + text);
+    }
+
+    /*
+     * One line of the sketch's output: the text itself, or in binary mode a
+     * frame of the given type (TEXT and RESPONSE frames carry the text).
+     */
+    private void report(int type, String text) {
+        if (!binary) {
+            println(text);
+        } else if (type == SensorFrameCodec.TYPE_TEXT || type == SensorFrameCodec.TYPE_RESPONSE) {
+            byte[] payload = text.getBytes(StandardCharsets.US_ASCII);
+            frame(type, payload, payload.length);
+        } else {
+            frame(type, null, 0);
+        }
+    }
+
+    private void report(int type, String text, int value) {
+        if (binary) {
+            frame(type, new byte[] {(byte) value, (byte) (value >> 8)}, 2);
+        } else {
+            print(text);
+            println(value);
+        }
+    }
+
+    private void frame(int type, byte[] payload, int payloadLength) {
+        if (line.length < payloadLength + 4) {
+            line = Arrays.copyOf(line, payloadLength + 4);
+        }
+        emit(SensorFrameCodec.encode(type, payload, payloadLength, line, 0));
+    }
+
+    private void emit(int size) {
+        length = 0;
+        if (!open) {
+            return;
+        }
+        emitting = true;
+        try {
+            framer.feed(line, 0, size);
+        } finally {
+            emitting = false;
+        }
+        runPendingCommands();
+    }
+
+    private void runPendingCommands() {
+        String text;
+        while (!emitting && (text = pendingCommands.poll()) != null) {
+            handleCommand(text);
+        }
+    }
+
+    private void generate() {
+        long intervalNanos = (long) (1_000_000_000L / scansPerSecond);
+        long next = System.nanoTime();
+        while (open) {
+            next += intervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            scanRandom();
+        }
+    }
+
+    private void print(String text) {
+        if (length + text.length() + 2 > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + text.length() + 2));
+        }
+        for (int i = 0; i < text.length(); i++) {
+            line[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void print(int value) {
+        if (value < 0) {
+            line[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            line[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte swap = line[i];
+            line[i] = line[j];
+            line[j] = swap;
+        }
+    }
+
+    private void println(String text) {
+        print(text);
+        println();
+    }
+
+    private void println(int value) {
+        print(value);
+        println();
+    }
+
+    private void println() {
+        line[length++] = '\r';
+        line[length++] = '\n';
+        emit(length);
+    }
+}
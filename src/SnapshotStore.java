@@ -0,0 +1,162 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Owns students.dat and its rotated generations (students.dat.1 .. .N).
+ * A save writes the whole snapshot to a temp file, fsyncs it, shifts the
+ * older generations down, links (or copies) the live file to .1 and renames
+ * the temp file over it, so the live file is always either the old or the
+ * new snapshot, never a torn or missing one.
+ * Loading takes the newest generation whose checksums validate.
+ *
+ * saveAsync() hands the copy to the snapshot-io thread and returns at once;
+ * if several saves pile up only the latest is written.
+ */
+public class SnapshotStore implements Closeable {
+    private final Path file;
+    private final Path tempFile;
+    private final int generations;
+    private final AtomicReference<List<StudentRecord>> pending = new AtomicReference<>();
+    private final ExecutorService io;
+
+    public SnapshotStore(Path file, int generations) {
+        this.file = file;
+        this.tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        this.generations = generations;
+        this.io = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /*
+     * Returns null when no generation exists at all. If generations exist but
+     * none of them validates, fails rather than letting the caller start empty
+     * and rotate the damaged files away.
+     */
+    public List<StudentRecord> load() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i <= generations; i++) {
+            Path candidate = generation(i);
+            if (!Files.exists(candidate)) {
+                continue;
+            }
+            try {
+                List<StudentRecord> records = StudentSnapshot.read(candidate);
+                if (i > 0) {
+                    AsyncLog.info("Snapshot: recovered from older generation " + candidate);
+                }
+                return records;
+            } catch (IOException e) {
+                AsyncLog.info("Snapshot: " + candidate + " is unreadable (" + e.getMessage() + ")");
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw new IOException("No readable snapshot generation of " + file, failure);
+        }
+        return null;
+    }
+
+    public void saveAsync(List<StudentRecord> records) {
+        if (pending.getAndSet(records) == null) {
+            io.execute(() -> {
+                List<StudentRecord> latest = pending.getAndSet(null);
+                if (latest == null) {
+                    return;
+                }
+                try {
+                    save(latest);
+                } catch (IOException e) {
+                    AsyncLog.error("Snapshot: save failed", e);
+                }
+            });
+        }
+    }
+
+    public synchronized void save(List<StudentRecord> records) throws IOException {
+        StudentSnapshot.write(tempFile, records);
+
+        Files.deleteIfExists(generation(generations));
+        for (int i = generations - 1; i >= 1; i--) {
+            Path older = generation(i);
+            if (Files.exists(older)) {
+                move(older, generation(i + 1));
+            }
+        }
+        if (generations > 0 && Files.exists(file)) {
+            keep(file, generation(1));
+        }
+        move(tempFile, file);
+        syncDirectory();
+    }
+
+    /*
+     * Waits for a queued save, if any, to reach the disk.
+     */
+    @Override
+    public void close() {
+        io.shutdown();
+        try {
+            io.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path generation(int index) {
+        return index == 0 ? file : file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /*
+     * A second name for the live file, which stays in place; a copy where
+     * the file system has no hard links.
+     */
+    private static void keep(Path live, Path copy) throws IOException {
+        Files.deleteIfExists(copy);
+        try {
+            Files.createLink(copy, live);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(live, copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /*
+     * Makes the renames themselves durable. Not every platform lets a
+     * directory be opened (Windows refuses), in which case the rename is
+     * already as durable as the OS will make it.
+     */
+    private void syncDirectory() {
+        Path directory = file.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+        }
+    }
+}
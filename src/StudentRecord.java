@@ -0,0 +1,48 @@
+public class StudentRecord {
+    public static final String PRESENT = "Present";
+    public static final String ABSENT = "Absent";
+
+    final int slot;
+    String studentID;
+    String name;
+    int fingerprintID;
+    String status;
+    long lastScan;
+
+    StudentRecord(int slot, String studentID, String name, int fingerprintID, String status, long lastScan) {
+        this.slot = slot;
+        this.studentID = studentID;
+        this.name = name;
+        this.fingerprintID = fingerprintID;
+        this.status = status;
+        this.lastScan = lastScan;
+    }
+
+    StudentRecord copy() {
+        return new StudentRecord(slot, studentID, name, fingerprintID, status, lastScan);
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public String getStudentID() {
+        return studentID;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getFingerprintID() {
+        return fingerprintID;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public long getLastScan() {
+        return lastScan;
+    }
+}
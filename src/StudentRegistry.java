@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * In-memory roster, independent of Swing and shared by every scanner session.
+ * Records live in slot order (slot == table row) and are indexed by fingerprint
+ * ID through a primitive map and by student ID through a hash map. Every
+ * mutation goes through this class under the write lock, so the indexes cannot
+ * drift from the records; callers only ever receive copies.
+ *
+ * Presence in the current session is a BitSet indexed by slot rather than
+ * the records' status strings, so a session rollover clears it in one pass
+ * over its words instead of touching every record. A record keeps its
+ * non-present status (normally Absent), which copies show whenever its
+ * presence bit is clear.
+ */
+public class StudentRegistry implements AttendanceJournal.Listener {
+    private static final int NOT_FOUND = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ArrayList<StudentRecord> records = new ArrayList<>();
+    private final IntIntHashMap slotByFingerprint = new IntIntHashMap(256, NOT_FOUND);
+    private final HashMap<String, StudentRecord> byStudentID = new HashMap<>();
+    private final BitSet present = new BitSet();
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return records.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int slotOf(int fingerprintID) {
+        lock.readLock().lock();
+        try {
+            return slotByFingerprint.get(fingerprintID);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public StudentRecord findByFingerprint(int fingerprintID) {
+        lock.readLock().lock();
+        try {
+            int slot = slotByFingerprint.get(fingerprintID);
+            return slot == NOT_FOUND ? null : copyOf(records.get(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public StudentRecord findByStudentID(String studentID) {
+        lock.readLock().lock();
+        try {
+            StudentRecord record = byStudentID.get(studentID);
+            return record == null ? null : copyOf(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Throws IllegalArgumentException if the student ID belongs to another
+     * fingerprint.
+     */
+    public StudentRecord enroll(String studentID, String name, int fingerprintID, String status, long timestamp) {
+        lock.writeLock().lock();
+        try {
+            return copyOf(put(studentID, name, fingerprintID, status, timestamp));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Enrolls or updates every record under one write lock, for bulk import.
+     * The rows must already be checked for student IDs held by other
+     * fingerprints (AttendanceService.importRoster does).
+     */
+    public void enrollAll(List<StudentRecord> batch) {
+        lock.writeLock().lock();
+        try {
+            records.ensureCapacity(records.size() + batch.size());
+            for (StudentRecord record : batch) {
+                put(record.studentID, record.name, record.fingerprintID, record.status, record.lastScan);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public StudentRecord markPresent(int fingerprintID, long timestamp) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotByFingerprint.get(fingerprintID);
+            if (slot == NOT_FOUND) {
+                return null;
+            }
+            StudentRecord record = records.get(slot);
+            present.set(slot);
+            record.lastScan = timestamp;
+            return copyOf(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public StudentRecord rename(int fingerprintID, String name) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotByFingerprint.get(fingerprintID);
+            if (slot == NOT_FOUND) {
+                return null;
+            }
+            StudentRecord record = records.get(slot);
+            record.name = name;
+            return copyOf(record);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Ends the current session: returns who was present, by slot, and marks
+     * everyone absent.
+     */
+    public BitSet rollover() {
+        lock.writeLock().lock();
+        try {
+            BitSet archived = (BitSet) present.clone();
+            present.clear();
+            return archived;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * Rebuilds presence after a load or replay, which restore whatever status
+     * was saved: present only if the last scan falls in the given session.
+     */
+    public void retainPresence(SessionSchedule.Session session) {
+        lock.writeLock().lock();
+        try {
+            present.clear();
+            for (StudentRecord record : records) {
+                if (session.contains(record.lastScan)) {
+                    present.set(record.slot);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int presentCount() {
+        lock.readLock().lock();
+        try {
+            return present.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            records.clear();
+            slotByFingerprint.clear();
+            byStudentID.clear();
+            present.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void load(List<StudentRecord> loaded) {
+        lock.writeLock().lock();
+        try {
+            records.clear();
+            slotByFingerprint.clear();
+            byStudentID.clear();
+            present.clear();
+            records.ensureCapacity(loaded.size());
+            for (StudentRecord record : loaded) {
+                try {
+                    put(record.studentID, record.name, record.fingerprintID, record.status, record.lastScan);
+                } catch (IllegalArgumentException e) {
+                    AsyncLog.info("Skipping saved student: " + e.getMessage());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<StudentRecord> snapshot() {
+        lock.readLock().lock();
+        try {
+            ArrayList<StudentRecord> copy = new ArrayList<>(records.size());
+            for (StudentRecord record : records) {
+                copy.add(copyOf(record));
+            }
+            return copy;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void enrolled(String studentID, String name, int fingerprintID, long timestamp) {
+        // Students registered ahead of their first scan are journaled with no timestamp.
+        try {
+            enroll(studentID, name, fingerprintID, timestamp > 0 ? StudentRecord.PRESENT : StudentRecord.ABSENT, timestamp);
+        } catch (IllegalArgumentException e) {
+            AsyncLog.info("Skipping journaled enrollment: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void attended(int fingerprintID, long timestamp) {
+        markPresent(fingerprintID, timestamp);
+    }
+
+    @Override
+    public void renamed(int fingerprintID, String name) {
+        rename(fingerprintID, name);
+    }
+
+    @Override
+    public void cleared() {
+        clear();
+    }
+
+    private StudentRecord put(String studentID, String name, int fingerprintID, String status, long timestamp) {
+        StudentRecord holder = byStudentID.get(studentID);
+        if (holder != null && holder.fingerprintID != fingerprintID) {
+            throw new IllegalArgumentException("student ID " + studentID + " is already enrolled with fingerprint ID "
+                + holder.fingerprintID);
+        }
+        int slot = slotByFingerprint.get(fingerprintID);
+        boolean isPresent = StudentRecord.PRESENT.equals(status);
+        String stored = isPresent ? StudentRecord.ABSENT : internStatus(status);
+        StudentRecord record;
+        if (slot == NOT_FOUND) {
+            record = new StudentRecord(records.size(), studentID, name, fingerprintID, stored, timestamp);
+            records.add(record);
+            slotByFingerprint.put(fingerprintID, record.slot);
+        } else {
+            record = records.get(slot);
+            byStudentID.remove(record.studentID);
+            record.studentID = studentID;
+            record.name = name;
+            record.status = stored;
+            record.lastScan = timestamp;
+        }
+        present.set(record.slot, isPresent);
+        byStudentID.put(studentID, record);
+        return record;
+    }
+
+    private StudentRecord copyOf(StudentRecord record) {
+        StudentRecord copy = record.copy();
+        if (present.get(record.slot)) {
+            copy.status = StudentRecord.PRESENT;
+        }
+        return copy;
+    }
+
+    static String internStatus(String status) {
+        if (StudentRecord.PRESENT.equals(status)) {
+            return StudentRecord.PRESENT;
+        }
+        if (StudentRecord.ABSENT.equals(status)) {
+            return StudentRecord.ABSENT;
+        }
+        return status.intern();
+    }
+}
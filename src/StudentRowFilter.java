@@ -0,0 +1,106 @@
+import java.time.LocalDate;
+import java.util.BitSet;
+import javax.swing.RowFilter;
+
+/*
+ * RowFilter over StudentTableModel driven by its StudentSearchIndex. The set
+ * of matching rows is resolved once per query or index change and cached, so
+ * the sorter's per-row include() is a single bit test rather than a string
+ * comparison.
+ */
+public class StudentRowFilter extends RowFilter<StudentTableModel, Integer> {
+
+    public enum DateRange {
+        ANY_TIME("Any Time"),
+        TODAY("Today"),
+        LAST_7_DAYS("Last 7 Days"),
+        NEVER_SCANNED("Never Scanned");
+
+        private final String label;
+
+        DateRange(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final StudentSearchIndex index;
+    private String text = "";
+    private String status;
+    private DateRange dateRange = DateRange.ANY_TIME;
+    private BitSet matches;
+    private int matchesVersion;
+    private long matchesExpireAt;
+
+    public StudentRowFilter(StudentSearchIndex index) {
+        this.index = index;
+    }
+
+    public void setText(String text) {
+        this.text = text == null ? "" : text;
+        matches = null;
+    }
+
+    /*
+     * null matches every status.
+     */
+    public void setStatus(String status) {
+        this.status = status;
+        matches = null;
+    }
+
+    public void setDateRange(DateRange dateRange) {
+        this.dateRange = dateRange;
+        matches = null;
+    }
+
+    public boolean isActive() {
+        return !text.trim().isEmpty() || status != null || dateRange != DateRange.ANY_TIME;
+    }
+
+    public int getMatchCount() {
+        return matches().cardinality();
+    }
+
+    @Override
+    public boolean include(Entry<? extends StudentTableModel, ? extends Integer> entry) {
+        return matches().get(entry.getIdentifier());
+    }
+
+    /*
+     * "Today" moves at midnight, so a date-filtered result also expires then.
+     * The clock is only read when a date range is set: include() runs once
+     * per row on every filter pass.
+     */
+    private BitSet matches() {
+        if (matches == null || matchesVersion != index.getVersion()
+                || (dateRange != DateRange.ANY_TIME && System.currentTimeMillis() >= matchesExpireAt)) {
+            LocalDate today = LocalDate.now();
+            BitSet rows = index.matchText(text);
+            if (status != null) {
+                rows.and(index.matchStatus(status));
+            }
+            switch (dateRange) {
+                case TODAY:
+                    rows.and(index.matchDays(today, today));
+                    break;
+                case LAST_7_DAYS:
+                    rows.and(index.matchDays(today.minusDays(6), today));
+                    break;
+                case NEVER_SCANNED:
+                    rows.and(index.matchNeverScanned());
+                    break;
+                default:
+                    break;
+            }
+            matches = rows;
+            matchesVersion = index.getVersion();
+            matchesExpireAt = Timestamps.startOfDay(today.plusDays(1));
+        }
+        return matches;
+    }
+}
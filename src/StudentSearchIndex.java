@@ -0,0 +1,293 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Incremental indexes over the rows of StudentTableModel, kept up to date by
+ * the model itself as rows are loaded and put (so EDT-only, like the model).
+ *
+ *   - a prefix trie over the lower-cased words of each name, the student ID
+ *     and the fingerprint ID
+ *   - status buckets: one BitSet of rows per status
+ *   - date buckets: one BitSet of rows per day of the last scan, with rows
+ *     never scanned in their own bucket
+ *
+ * A query resolves to a BitSet of matching rows by walking the trie for each
+ * search term and combining buckets with word-wide bit operations; the row
+ * filter then only tests one bit per row.
+ */
+public class StudentSearchIndex {
+    public static final long NEVER_SCANNED = Long.MIN_VALUE;
+
+    private static final int[] NO_ROWS = new int[0];
+    private static final char[] NO_KEYS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final class Node {
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int[] rows = NO_ROWS;
+        int rowCount;
+
+        Node child(char key) {
+            int at = Arrays.binarySearch(keys, key);
+            return at >= 0 ? children[at] : null;
+        }
+
+        Node childOrCreate(char key) {
+            int at = Arrays.binarySearch(keys, key);
+            if (at >= 0) {
+                return children[at];
+            }
+            int insert = -at - 1;
+            Node node = new Node();
+            char[] grownKeys = new char[keys.length + 1];
+            Node[] grownChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, grownKeys, 0, insert);
+            System.arraycopy(children, 0, grownChildren, 0, insert);
+            grownKeys[insert] = key;
+            grownChildren[insert] = node;
+            System.arraycopy(keys, insert, grownKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, insert, grownChildren, insert + 1, children.length - insert);
+            keys = grownKeys;
+            children = grownChildren;
+            return node;
+        }
+
+        void addRow(int row) {
+            if (rowCount == rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(1, rowCount * 2));
+            }
+            rows[rowCount++] = row;
+        }
+
+        void removeRow(int row) {
+            for (int i = 0; i < rowCount; i++) {
+                if (rows[i] == row) {
+                    rows[i] = rows[--rowCount];
+                    return;
+                }
+            }
+        }
+    }
+
+    private Node root = new Node();
+    private final Map<String, BitSet> statusBuckets = new HashMap<>();
+    private final Map<Long, BitSet> dayBuckets = new HashMap<>();
+    private String[][] rowTerms = new String[0][];
+    private String[] rowStatuses = new String[0];
+    private long[] rowDays = new long[0];
+    private int rowCount;
+    private int version;
+    private long cachedDayStart = Long.MAX_VALUE;
+    private long cachedDayEnd = Long.MIN_VALUE;
+    private long cachedDay;
+
+    /*
+     * Bumped on every change, so cached query results know when to refresh.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void clear() {
+        root = new Node();
+        statusBuckets.clear();
+        dayBuckets.clear();
+        Arrays.fill(rowTerms, 0, rowCount, null);
+        Arrays.fill(rowStatuses, 0, rowCount, null);
+        rowCount = 0;
+        version++;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= rowTerms.length) {
+            return;
+        }
+        int grown = Math.max(capacity, rowTerms.length + (rowTerms.length >> 1) + 16);
+        rowTerms = Arrays.copyOf(rowTerms, grown);
+        rowStatuses = Arrays.copyOf(rowStatuses, grown);
+        rowDays = Arrays.copyOf(rowDays, grown);
+    }
+
+    public void update(int row, String studentID, String name, int fingerprintID, String status, long lastScan) {
+        ensureCapacity(row + 1);
+        if (row < rowCount) {
+            remove(row);
+        } else {
+            rowCount = row + 1;
+        }
+
+        String[] terms = terms(studentID, name, fingerprintID);
+        for (String term : terms) {
+            Node node = root;
+            for (int i = 0; i < term.length(); i++) {
+                node = node.childOrCreate(term.charAt(i));
+            }
+            node.addRow(row);
+        }
+        long day = lastScan > 0 ? epochDay(lastScan) : NEVER_SCANNED;
+        statusBuckets.computeIfAbsent(status, key -> new BitSet()).set(row);
+        dayBuckets.computeIfAbsent(day, key -> new BitSet()).set(row);
+        rowTerms[row] = terms;
+        rowStatuses[row] = status;
+        rowDays[row] = day;
+        version++;
+    }
+
+    /*
+     * Rows where every whitespace-separated word of the query is a prefix of
+     * a word of the name, the student ID or the fingerprint ID. A blank query
+     * matches every row.
+     */
+    public BitSet matchText(String query) {
+        BitSet result = all();
+        for (String word : query.trim().toLowerCase().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            BitSet matches = new BitSet(rowCount);
+            Node node = root;
+            for (int i = 0; i < word.length() && node != null; i++) {
+                node = node.child(word.charAt(i));
+            }
+            if (node != null) {
+                collect(node, matches);
+            }
+            result.and(matches);
+        }
+        return result;
+    }
+
+    public BitSet matchStatus(String status) {
+        BitSet rows = statusBuckets.get(status);
+        return rows == null ? new BitSet() : (BitSet) rows.clone();
+    }
+
+    /*
+     * Rows last scanned on a day in [from, to]. Rows never scanned are only
+     * returned by matchNeverScanned.
+     */
+    public BitSet matchDays(LocalDate from, LocalDate to) {
+        BitSet result = new BitSet(rowCount);
+        long first = from.toEpochDay();
+        long last = to.toEpochDay();
+        if (last - first < dayBuckets.size()) {
+            for (long day = first; day <= last; day++) {
+                BitSet rows = dayBuckets.get(day);
+                if (rows != null) {
+                    result.or(rows);
+                }
+            }
+        } else {
+            for (Map.Entry<Long, BitSet> bucket : dayBuckets.entrySet()) {
+                long day = bucket.getKey();
+                if (day != NEVER_SCANNED && day >= first && day <= last) {
+                    result.or(bucket.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    public BitSet matchNeverScanned() {
+        BitSet rows = dayBuckets.get(NEVER_SCANNED);
+        return rows == null ? new BitSet() : (BitSet) rows.clone();
+    }
+
+    public BitSet all() {
+        BitSet rows = new BitSet(rowCount);
+        rows.set(0, rowCount);
+        return rows;
+    }
+
+    private void remove(int row) {
+        String[] terms = rowTerms[row];
+        if (terms != null) {
+            for (String term : terms) {
+                Node node = root;
+                for (int i = 0; i < term.length() && node != null; i++) {
+                    node = node.child(term.charAt(i));
+                }
+                if (node != null) {
+                    node.removeRow(row);
+                }
+            }
+        }
+        BitSet status = statusBuckets.get(rowStatuses[row]);
+        if (status != null) {
+            status.clear(row);
+        }
+        BitSet day = dayBuckets.get(rowDays[row]);
+        if (day != null) {
+            day.clear(row);
+        }
+    }
+
+    /*
+     * Most rows were scanned on one of a handful of days, so the last day's
+     * bounds are remembered instead of converting every timestamp.
+     */
+    private long epochDay(long epochMillis) {
+        if (epochMillis < cachedDayStart || epochMillis >= cachedDayEnd) {
+            LocalDate day = Timestamps.dayOf(epochMillis);
+            cachedDay = day.toEpochDay();
+            cachedDayStart = Timestamps.startOfDay(day);
+            cachedDayEnd = Timestamps.startOfDay(day.plusDays(1));
+        }
+        return cachedDay;
+    }
+
+    private static void collect(Node node, BitSet matches) {
+        for (int i = 0; i < node.rowCount; i++) {
+            matches.set(node.rows[i]);
+        }
+        for (Node child : node.children) {
+            collect(child, matches);
+        }
+    }
+
+    private static String[] terms(String studentID, String name, int fingerprintID) {
+        String lower = name == null ? "" : name.toLowerCase();
+        String[] terms = new String[lower.length() / 2 + 3];
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i <= lower.length(); i++) {
+            if (i == lower.length() || isSeparator(lower.charAt(i))) {
+                count = addTerm(terms, count, lower.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (studentID != null) {
+            count = addTerm(terms, count, studentID.toLowerCase());
+        }
+        count = addTerm(terms, count, Integer.toString(fingerprintID));
+        return Arrays.copyOf(terms, count);
+    }
+
+    private static boolean isSeparator(char c) {
+        return Character.isWhitespace(c) || c == ',' || c == '.';
+    }
+
+    /*
+     * A row is listed once per trie node, so repeated words are dropped.
+     */
+    private static int addTerm(String[] terms, int count, String term) {
+        if (term.isEmpty()) {
+            return count;
+        }
+        for (int i = 0; i < count; i++) {
+            if (terms[i].equals(term)) {
+                return count;
+            }
+        }
+        terms[count] = term;
+        return count + 1;
+    }
+}
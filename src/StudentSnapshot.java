@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*
+ * Binary snapshot of the roster (students.dat). Layout:
+ *
+ *   header  magic, version, record count, pool size, body crc, header crc
+ *   records count x 24 bytes: fingerprint ID, student ID ref, name ref,
+ *           status ref, last scan (epoch millis)
+ *   pool    length-prefixed UTF-8 strings, referenced by byte offset
+ *
+ * Records are fixed width so the file is read straight out of a mapping,
+ * and nothing in it depends on the shape of a Java class. The version field
+ * is bumped whenever the layout changes.
+ */
+public final class StudentSnapshot {
+    public static final int MAGIC = 0x53545544;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 24;
+    private static final int HEADER_CRC_OFFSET = 20;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private StudentSnapshot() {
+    }
+
+    public static void write(Path path, List<StudentRecord> records) throws IOException {
+        Map<String, Integer> offsets = new HashMap<>();
+        ByteBuffer pool = ByteBuffer.allocate(Math.max(256, records.size() * 48));
+        ByteBuffer body = ByteBuffer.allocate(records.size() * RECORD_SIZE);
+
+        for (StudentRecord record : records) {
+            body.putInt(record.fingerprintID);
+            pool = grown(pool);
+            int studentIDRef = intern(record.studentID, offsets, pool);
+            pool = grown(pool);
+            int nameRef = intern(record.name, offsets, pool);
+            pool = grown(pool);
+            int statusRef = intern(record.status, offsets, pool);
+            body.putInt(studentIDRef);
+            body.putInt(nameRef);
+            body.putInt(statusRef);
+            body.putLong(record.lastScan);
+        }
+        body.flip();
+        pool.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        crc.update(pool.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(records.size());
+        header.putInt(pool.remaining());
+        header.putInt((int) crc.getValue());
+        header.putInt(HEADER_CRC_OFFSET, headerChecksum(header));
+        header.clear();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = { header, body, pool };
+            long total = HEADER_SIZE + body.remaining() + pool.remaining();
+            long written = 0;
+            while (written < total) {
+                written += channel.write(parts);
+            }
+            channel.force(true);
+        }
+    }
+
+    public static List<StudentRecord> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("Snapshot is truncated: " + path);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not a student snapshot: " + path);
+            }
+            ByteBuffer header = data.duplicate();
+            header.limit(HEADER_SIZE);
+            if (data.getInt(HEADER_CRC_OFFSET) != headerChecksum(header)) {
+                throw new IOException("Snapshot header checksum mismatch: " + path);
+            }
+            int version = data.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + ": " + path);
+            }
+            int count = data.getInt(8);
+            int poolSize = data.getInt(12);
+            long expectedSize = HEADER_SIZE + (long) count * RECORD_SIZE + poolSize;
+            if (count < 0 || poolSize < 0 || expectedSize != size) {
+                throw new IOException("Snapshot size mismatch: " + path);
+            }
+
+            ByteBuffer body = data.duplicate();
+            body.position(HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != data.getInt(16)) {
+                throw new IOException("Snapshot checksum mismatch: " + path);
+            }
+
+            int poolStart = HEADER_SIZE + count * RECORD_SIZE;
+            Map<Integer, String> statuses = new HashMap<>();
+            List<StudentRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int at = HEADER_SIZE + i * RECORD_SIZE;
+                int statusRef = data.getInt(at + 12);
+                String status = statuses.get(statusRef);
+                if (status == null) {
+                    status = StudentRegistry.internStatus(string(data, poolStart, poolSize, statusRef));
+                    statuses.put(statusRef, status);
+                }
+                records.add(new StudentRecord(
+                    i,
+                    string(data, poolStart, poolSize, data.getInt(at + 4)),
+                    string(data, poolStart, poolSize, data.getInt(at + 8)),
+                    data.getInt(at),
+                    status,
+                    data.getLong(at + 16)
+                ));
+            }
+            return records;
+        }
+    }
+
+    private static int intern(String value, Map<String, Integer> offsets, ByteBuffer pool) {
+        if (value == null) {
+            value = "";
+        }
+        Integer known = offsets.get(value);
+        if (known != null) {
+            return known;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        int offset = pool.position();
+        pool.putShort((short) length);
+        pool.put(bytes, 0, length);
+        offsets.put(value, offset);
+        return offset;
+    }
+
+    /*
+     * Keeps at least one maximum-length string of headroom in the pool.
+     */
+    private static ByteBuffer grown(ByteBuffer pool) {
+        if (pool.remaining() >= MAX_STRING_BYTES + 2) {
+            return pool;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(pool.capacity() * 2 + MAX_STRING_BYTES + 2);
+        pool.flip();
+        larger.put(pool);
+        return larger;
+    }
+
+    private static String string(ByteBuffer data, int poolStart, int poolSize, int offset) throws IOException {
+        if (offset < 0 || offset + 2 > poolSize) {
+            throw new IOException("Snapshot string reference out of range: " + offset);
+        }
+        int length = data.getShort(poolStart + offset) & 0xFFFF;
+        if (offset + 2 + length > poolSize) {
+            throw new IOException("Snapshot string overruns pool: " + offset);
+        }
+        byte[] bytes = new byte[length];
+        data.get(poolStart + offset + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int headerChecksum(ByteBuffer header) {
+        CRC32 crc = new CRC32();
+        ByteBuffer fields = header.duplicate();
+        fields.position(0);
+        fields.limit(HEADER_CRC_OFFSET);
+        crc.update(fields);
+        return (int) crc.getValue();
+    }
+}
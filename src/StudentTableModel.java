@@ -0,0 +1,164 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Column-oriented table model: every column is a typed array, statuses are the
+ * interned StudentRecord constants and scan times stay epoch millis until the
+ * renderer formats the rows that are actually visible. Rows are addressed by
+ * registry slot, so a scan updates exactly one row.
+ */
+public class StudentTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = -2859143621544374327L;
+
+    public static final int COLUMN_STUDENT_ID = 0;
+    public static final int COLUMN_NAME = 1;
+    public static final int COLUMN_FINGERPRINT_ID = 2;
+    public static final int COLUMN_STATUS = 3;
+    public static final int COLUMN_LAST_SCAN = 4;
+
+    private static final String[] COLUMN_NAMES = {"Student ID", "Name", "Fingerprint ID", "Status", "Last Scan"};
+    private static final Class<?>[] COLUMN_CLASSES = {String.class, String.class, Integer.class, String.class, Long.class};
+
+    private String[] studentIDs = new String[0];
+    private String[] names = new String[0];
+    private int[] fingerprintIDs = new int[0];
+    private String[] statuses = new String[0];
+    private long[] lastScans = new long[0];
+    private int rowCount;
+    private final StudentSearchIndex index = new StudentSearchIndex();
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case COLUMN_STUDENT_ID: return studentIDs[row];
+            case COLUMN_NAME: return names[row];
+            case COLUMN_FINGERPRINT_ID: return fingerprintIDs[row];
+            case COLUMN_STATUS: return statuses[row];
+            case COLUMN_LAST_SCAN: return lastScans[row];
+            default: throw new IndexOutOfBoundsException("column " + column);
+        }
+    }
+
+    /*
+     * Kept in step with the rows before any change event is fired, so row
+     * filters evaluated during the event already see the new values.
+     */
+    public StudentSearchIndex getIndex() {
+        return index;
+    }
+
+    public String getStudentID(int row) {
+        return studentIDs[row];
+    }
+
+    public String getName(int row) {
+        return names[row];
+    }
+
+    public int getFingerprintID(int row) {
+        return fingerprintIDs[row];
+    }
+
+    public String getStatus(int row) {
+        return statuses[row];
+    }
+
+    public long getLastScan(int row) {
+        return lastScans[row];
+    }
+
+    public void load(List<StudentRecord> records) {
+        int size = records.size();
+        ensureCapacity(size);
+        index.clear();
+        index.ensureCapacity(size);
+        for (StudentRecord record : records) {
+            copy(record);
+        }
+        if (size < rowCount) {
+            Arrays.fill(studentIDs, size, rowCount, null);
+            Arrays.fill(names, size, rowCount, null);
+            Arrays.fill(statuses, size, rowCount, null);
+        }
+        rowCount = size;
+        fireTableDataChanged();
+    }
+
+    /*
+     * Updates the record's row or appends it as the next one. A record
+     * further on (listener callbacks from two sessions can arrive out of
+     * order) would leave blank rows in between, so it is not applied and
+     * false is returned; the caller reloads instead.
+     */
+    public boolean put(StudentRecord record) {
+        int row = record.slot;
+        if (row < rowCount) {
+            copy(record);
+            fireTableRowsUpdated(row, row);
+        } else if (row == rowCount) {
+            ensureCapacity(row + 1);
+            copy(record);
+            rowCount = row + 1;
+            fireTableRowsInserted(row, row);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    public void clear() {
+        if (rowCount == 0) {
+            return;
+        }
+        int last = rowCount - 1;
+        Arrays.fill(studentIDs, 0, rowCount, null);
+        Arrays.fill(names, 0, rowCount, null);
+        Arrays.fill(statuses, 0, rowCount, null);
+        rowCount = 0;
+        index.clear();
+        fireTableRowsDeleted(0, last);
+    }
+
+    private void copy(StudentRecord record) {
+        int row = record.slot;
+        studentIDs[row] = record.studentID;
+        names[row] = record.name;
+        fingerprintIDs[row] = record.fingerprintID;
+        statuses[row] = record.status;
+        lastScans[row] = record.lastScan;
+        index.update(row, record.studentID, record.name, record.fingerprintID, record.status, record.lastScan);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= fingerprintIDs.length) {
+            return;
+        }
+        int grown = Math.max(capacity, fingerprintIDs.length + (fingerprintIDs.length >> 1) + 16);
+        studentIDs = Arrays.copyOf(studentIDs, grown);
+        names = Arrays.copyOf(names, grown);
+        fingerprintIDs = Arrays.copyOf(fingerprintIDs, grown);
+        statuses = Arrays.copyOf(statuses, grown);
+        lastScans = Arrays.copyOf(lastScans, grown);
+    }
+}
@@ -0,0 +1,242 @@
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Hands out template slots across every attached sensor so the roster is not
+ * limited to what one sensor holds. A student's fingerprint ID is
+ *
+ *   sensor * SENSOR_STRIDE + slot
+ *
+ * so sensor 0 keeps the IDs 1-127 the sketch used to assign on its own, and
+ * existing records stay valid. Each sensor's used slots are a BitSet loaded
+ * from its LIST bitmap when it connects; the host reserves the lowest free
+ * slot and tells the sketch to enroll into it (NEXT), so slots freed by a
+ * delete are reused before fresh ones and the sensor never fills up with
+ * holes the way the sketch's ever-increasing nextID did.
+ *
+ * A slot can also be claimed for a student imported ahead of enrollment.
+ * Claimed slots that hold no template yet are reserved before any other, so
+ * enrollment works through the imported students in ID order, and a free
+ * slot is never one somebody has claimed.
+ */
+public class TemplateSlotAllocator {
+    public static final int SENSOR_STRIDE = 10_000;
+    // The sketch keeps its number in one EEPROM byte, and 0xFF means unset.
+    public static final int MAX_SENSOR_NUMBER = 254;
+    public static final int NO_SLOT = 0;
+
+    private static final class Sensor {
+        final BitSet used;
+        final BitSet claimed = new BitSet();
+        final int capacity;
+        int reserved = NO_SLOT;
+
+        Sensor(BitSet used, int capacity) {
+            this.used = used;
+            this.capacity = capacity;
+        }
+    }
+
+    private final Map<Integer, Sensor> sensors = new HashMap<>();
+
+    public static int globalID(int sensor, int slot) {
+        return sensor * SENSOR_STRIDE + slot;
+    }
+
+    public static int sensorOf(int fingerprintID) {
+        return fingerprintID / SENSOR_STRIDE;
+    }
+
+    public static int slotOf(int fingerprintID) {
+        return fingerprintID % SENSOR_STRIDE;
+    }
+
+    /*
+     * Starts tracking a sensor with the given slots already used. Slot 0 is
+     * never handed out; the sensor library treats it as "no ID". Returns
+     * false if a sensor with that number is already attached.
+     */
+    public synchronized boolean attach(int sensor, int capacity, BitSet occupied) {
+        if (sensors.containsKey(sensor)) {
+            return false;
+        }
+        BitSet used = (BitSet) occupied.clone();
+        used.set(0);
+        sensors.put(sensor, new Sensor(used, Math.min(capacity, SENSOR_STRIDE - 1)));
+        return true;
+    }
+
+    /*
+     * Attaches a sensor that has no number yet under the lowest number that
+     * is neither attached nor taken (numbers whose IDs are still on the
+     * roster), and returns that number. Throws IllegalStateException once
+     * every number up to MAX_SENSOR_NUMBER is in use.
+     */
+    public synchronized int attachNew(int capacity, BitSet occupied, Set<Integer> taken) {
+        int sensor = 0;
+        while (sensors.containsKey(sensor) || taken.contains(sensor)) {
+            sensor++;
+        }
+        if (sensor > MAX_SENSOR_NUMBER) {
+            throw new IllegalStateException("every sensor number up to " + MAX_SENSOR_NUMBER + " is in use");
+        }
+        attach(sensor, capacity, occupied);
+        return sensor;
+    }
+
+    /*
+     * Marks every slot of the sensor free, after its templates were erased.
+     */
+    public synchronized void reset(int sensor) {
+        Sensor state = sensors.get(sensor);
+        if (state != null) {
+            state.used.clear();
+            state.used.set(0);
+            state.claimed.clear();
+            state.reserved = NO_SLOT;
+        }
+    }
+
+    public synchronized void detach(int sensor) {
+        sensors.remove(sensor);
+    }
+
+    public synchronized boolean isAttached(int sensor) {
+        return sensors.containsKey(sensor);
+    }
+
+    /*
+     * Reserves the slot for the sensor's next enrollment - the lowest claimed
+     * slot still without a template, else the lowest free one - or returns
+     * the one already reserved. NO_SLOT if the sensor is full.
+     */
+    public synchronized int reserve(int sensor) {
+        Sensor state = sensors.get(sensor);
+        if (state == null) {
+            return NO_SLOT;
+        }
+        if (state.reserved == NO_SLOT) {
+            BitSet awaiting = (BitSet) state.claimed.clone();
+            awaiting.andNot(state.used);
+            int slot = awaiting.nextSetBit(1);
+            if (slot < 0) {
+                slot = nextFree(state, 1);
+            }
+            state.reserved = slot > 0 && slot <= state.capacity ? slot : NO_SLOT;
+        }
+        return state.reserved;
+    }
+
+    /*
+     * Claims a slot for a student who will enroll into it. Drops the current
+     * reservation if it is not a claimed slot, since the claim now goes first.
+     */
+    public synchronized void claim(int sensor, int slot) {
+        Sensor state = sensors.get(sensor);
+        if (state == null) {
+            return;
+        }
+        state.claimed.set(slot);
+        if (state.reserved != NO_SLOT && !state.claimed.get(state.reserved)) {
+            state.reserved = NO_SLOT;
+        }
+    }
+
+    /*
+     * Claims the lowest slot that is neither used nor claimed, or returns
+     * NO_SLOT if there is none.
+     */
+    public synchronized int claimFree(int sensor) {
+        Sensor state = sensors.get(sensor);
+        if (state == null) {
+            return NO_SLOT;
+        }
+        int slot = nextFree(state, 1);
+        if (slot > state.capacity) {
+            return NO_SLOT;
+        }
+        claim(sensor, slot);
+        return slot;
+    }
+
+    public synchronized boolean isClaimed(int sensor, int slot) {
+        Sensor state = sensors.get(sensor);
+        return state != null && state.claimed.get(slot);
+    }
+
+    /*
+     * Records that a template was stored in the slot, and drops the
+     * reservation if it was the reserved one. Returns true in that case, when
+     * the sensor needs a new reservation.
+     */
+    public synchronized boolean markUsed(int sensor, int slot) {
+        Sensor state = sensors.get(sensor);
+        if (state == null) {
+            return false;
+        }
+        state.used.set(slot);
+        if (state.reserved != slot) {
+            return false;
+        }
+        state.reserved = NO_SLOT;
+        return true;
+    }
+
+    /*
+     * Frees a deleted slot and drops the reservation, which the caller then
+     * renews: the freed slot may now be the one to fill first.
+     */
+    public synchronized void release(int sensor, int slot) {
+        Sensor state = sensors.get(sensor);
+        if (state == null || slot < 1) {
+            return;
+        }
+        state.used.clear(slot);
+        state.reserved = NO_SLOT;
+    }
+
+    public synchronized int capacity(int sensor) {
+        Sensor state = sensors.get(sensor);
+        return state == null ? 0 : state.capacity;
+    }
+
+    /*
+     * A copy of the slots holding a template, or null if the sensor is not
+     * attached. Slot 0 is never in it.
+     */
+    public synchronized BitSet used(int sensor) {
+        Sensor state = sensors.get(sensor);
+        if (state == null) {
+            return null;
+        }
+        BitSet used = (BitSet) state.used.clone();
+        used.clear(0);
+        return used;
+    }
+
+    /*
+     * Slots neither holding a template nor claimed.
+     */
+    public synchronized int free(int sensor) {
+        Sensor state = sensors.get(sensor);
+        if (state == null) {
+            return 0;
+        }
+        BitSet taken = (BitSet) state.used.clone();
+        taken.or(state.claimed);
+        return state.capacity - (taken.get(0, state.capacity + 1).cardinality() - 1);
+    }
+
+    private static int nextFree(Sensor state, int from) {
+        int slot = from;
+        while (true) {
+            slot = state.used.nextClearBit(slot);
+            if (!state.claimed.get(slot)) {
+                return slot;
+            }
+            slot++;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/*
+ * Scan times are kept as epoch millis everywhere; this is the one place that
+ * turns them into the "yyyy-MM-dd HH:mm:ss" text shown in the table and
+ * written to students.dat and CSV exports.
+ */
+public final class Timestamps {
+    public static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    public static final DateTimeFormatter CLOCK_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private Timestamps() {
+    }
+
+    public static String format(long epochMillis) {
+        if (epochMillis <= 0) {
+            return "";
+        }
+        return toLocal(epochMillis).format(TIME_FORMAT);
+    }
+
+    public static String formatClock(long epochMillis) {
+        return toLocal(epochMillis).format(CLOCK_FORMAT);
+    }
+
+    public static long parse(String text) {
+        try {
+            return LocalDateTime.parse(text, TIME_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    public static long startOfDay(LocalDate day) {
+        return day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public static LocalDate dayOf(long epochMillis) {
+        return toLocal(epochMillis).toLocalDate();
+    }
+
+    private static LocalDateTime toLocal(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}